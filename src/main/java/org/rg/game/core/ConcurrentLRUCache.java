@@ -0,0 +1,184 @@
+package org.rg.game.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
+
+public class ConcurrentLRUCache<K, V> {
+	private final Map<K, Item<V>> items;
+	//Ordinato dal meno recentemente usato al piu' recentemente usato
+	private final LinkedHashMap<K, Item<V>> usageOrder;
+	private final int maxSize;
+	private final long maxWeight;
+	private final ToLongBiFunction<K, V> weigher;
+	private final Predicate<V> evictable;
+	private final AtomicLong hitCounter;
+	private final AtomicLong missCounter;
+	private final AtomicLong evictionCounter;
+	private volatile long weight;
+
+	public ConcurrentLRUCache(int maxSize) {
+		this(maxSize, Long.MAX_VALUE, value -> 0L, value -> true);
+	}
+
+	public ConcurrentLRUCache(
+		int maxSize,
+		long maxWeight,
+		ToLongFunction<V> weigher,
+		Predicate<V> evictable
+	) {
+		this(maxSize, maxWeight, (key, value) -> weigher.applyAsLong(value), evictable);
+	}
+
+	//Il peso puo' dipendere anche dalla chiave quando questa e' paragonabile o piu' grande del valore
+	public ConcurrentLRUCache(
+		int maxSize,
+		long maxWeight,
+		ToLongBiFunction<K, V> weigher,
+		Predicate<V> evictable
+	) {
+		this.items = new ConcurrentHashMap<>();
+		this.usageOrder = new LinkedHashMap<>(16, 0.75f, true);
+		this.maxSize = maxSize;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.evictable = evictable;
+		this.hitCounter = new AtomicLong(0);
+		this.missCounter = new AtomicLong(0);
+		this.evictionCounter = new AtomicLong(0);
+	}
+
+	public V get(K key) {
+		Item<V> item = items.get(key);
+		V value = item != null ? item.value : null;
+		if (value != null) {
+			hitCounter.incrementAndGet();
+			touch(key);
+		}
+		return value;
+	}
+
+	//Concurrent calls for the same key wait for the first builder instead of building again
+	public V getOrBuild(K key, Supplier<V> builder) {
+		Item<V> item = items.computeIfAbsent(key, itemKey -> new Item<>());
+		V value = item.value;
+		if (value == null) {
+			synchronized (item) {
+				if ((value = item.value) == null) {
+					if (items.get(key) != item) {
+						//The item has been discarded because its building failed
+						return getOrBuild(key, builder);
+					}
+					missCounter.incrementAndGet();
+					try {
+						value = builder.get();
+					} catch (Throwable exc) {
+						items.remove(key, item);
+						throw exc;
+					}
+					item.value = value;
+					synchronized (usageOrder) {
+						item.weight = weigher.applyAsLong(key, value);
+						weight += item.weight;
+						usageOrder.put(key, item);
+						evictIfNeeded();
+					}
+					return value;
+				}
+			}
+		}
+		hitCounter.incrementAndGet();
+		touch(key);
+		return value;
+	}
+
+	//Il peso di un valore puo' crescere dopo l'inserimento (ad esempio per le statistiche calcolate alla prima
+	//richiesta) per cui viene aggiornato ad ogni accesso
+	private void touch(K key) {
+		synchronized (usageOrder) {
+			Item<V> item = usageOrder.get(key);
+			if (item != null) {
+				long itemWeight = weigher.applyAsLong(key, item.value);
+				if (itemWeight != item.weight) {
+					weight += itemWeight - item.weight;
+					item.weight = itemWeight;
+					evictIfNeeded();
+				}
+			}
+		}
+	}
+
+	//Il peso totale viene mantenuto in modo incrementale: va chiamato con il lock su usageOrder
+	private void evictIfNeeded() {
+		Iterator<Map.Entry<K, Item<V>>> itemsIterator = usageOrder.entrySet().iterator();
+		while ((usageOrder.size() > maxSize || weight > maxWeight) && itemsIterator.hasNext()) {
+			Map.Entry<K, Item<V>> itemEntry = itemsIterator.next();
+			Item<V> item = itemEntry.getValue();
+			if (evictable.test(item.value)) {
+				weight -= item.weight;
+				itemsIterator.remove();
+				items.remove(itemEntry.getKey(), item);
+				evictionCounter.incrementAndGet();
+			}
+		}
+	}
+
+	public void removeIf(Predicate<V> predicate) {
+		synchronized (usageOrder) {
+			Iterator<Map.Entry<K, Item<V>>> itemsIterator = usageOrder.entrySet().iterator();
+			while (itemsIterator.hasNext()) {
+				Map.Entry<K, Item<V>> itemEntry = itemsIterator.next();
+				Item<V> item = itemEntry.getValue();
+				if (predicate.test(item.value)) {
+					weight -= item.weight;
+					itemsIterator.remove();
+					items.remove(itemEntry.getKey(), item);
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		removeIf(value -> true);
+	}
+
+	public int size() {
+		synchronized (usageOrder) {
+			return usageOrder.size();
+		}
+	}
+
+	public long getWeight() {
+		return weight;
+	}
+
+	public long getHitCount() {
+		return hitCounter.get();
+	}
+
+	public long getMissCount() {
+		return missCounter.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCounter.get();
+	}
+
+	public String getStatistics() {
+		return "size: " + size() + ", weight: " + MathUtils.INSTANCE.integerFormat.format(getWeight()) +
+			", hits: " + getHitCount() + ", misses: " + getMissCount() + ", evictions: " + getEvictionCount();
+	}
+
+	private static class Item<V> {
+		private volatile V value;
+		//Il peso con cui il valore e' conteggiato nel totale: viene letto e scritto con il lock su usageOrder
+		private long weight;
+	}
+
+}
@@ -91,6 +91,18 @@ public class MathUtils {
 	}
 
 
+	//Quantile della distribuzione normale standard (approssimazione 26.2.23 di Abramowitz e Stegun, errore < 4.5e-4)
+	public double normalQuantile(double probability) {
+		if (probability <= 0 || probability >= 1) {
+			throw new IllegalArgumentException("Probability must be between 0 and 1 (exclusive): " + probability);
+		}
+		double tailProbability = Math.min(probability, 1 - probability);
+		double t = Math.sqrt(-2 * Math.log(tailProbability));
+		double quantile = t - (2.515517 + 0.802853 * t + 0.010328 * t * t) /
+			(1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+		return probability < 0.5 ? -quantile : quantile;
+	}
+
 	public BigInteger factorial(Number number) {
 		return factorial(BigInteger.valueOf(number.longValue()));
 	}
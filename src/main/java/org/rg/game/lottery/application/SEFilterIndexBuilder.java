@@ -0,0 +1,46 @@
+package org.rg.game.lottery.application;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.rg.game.core.LogUtils;
+import org.rg.game.lottery.engine.ComboRankBitmap;
+import org.rg.game.lottery.engine.PersistentStorage;
+
+//Calcola una volta per tutte le combinazioni di 6 numeri su 90 accettate da un filtro statico e le salva in un file
+//che puo' essere indicato nella proprieta' 'combination.filter.index' della configurazione
+public class SEFilterIndexBuilder extends Shared {
+	private static String fileName = "filter-index.bin";
+	private static String filter =
+		"sameLastDigit: 0,4&" +
+		"1 -> 9: 0,3;" +
+		"10 -> 19: 0,3;" +
+		"20 -> 29: 0,3;" +
+		"30 -> 39: 0,3;" +
+		"40 -> 49: 0,3;" +
+		"50 -> 59: 0,3;" +
+		"60 -> 69: 0,3;" +
+		"70 -> 79: 0,3;" +
+		"80 -> 90: 0,3;";
+
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			fileName = args[0];
+		}
+		if (args.length > 1) {
+			filter = args[1];
+		}
+		List<Integer> numbers = IntStream.rangeClosed(1, 90).boxed().collect(Collectors.toList());
+		long startTime = System.currentTimeMillis();
+		ComboRankBitmap index = ComboRankBitmap.build(filter, numbers, 6);
+		String absolutePath = PersistentStorage.buildWorkingPath() + File.separator + fileName;
+		index.write(absolutePath);
+		LogUtils.INSTANCE.info(
+			"Filter index " + absolutePath + " built in " + (System.currentTimeMillis() - startTime) / 1000 + " seconds: " +
+			index.getCardinality() + " of " + index.getSize() + " combos accepted (" + new File(absolutePath).length() + " bytes)"
+		);
+	}
+
+}
@@ -985,9 +985,9 @@ public class SELotterySimpleSimulator extends Shared {
 	) {
 		//LogUtils.INSTANCE.info("Computing historycal data of " + storage.getName());
 		Map<String, Object> qualityCheckResult =
-			sEStats.checkQuality(storage::iterator, Premium.allTypes(), premiumTypes);
+			sEStats.checkQuality(storage, Premium.allTypes(), premiumTypes);
 		Map<String, Object> qualityCheckResultFromExtractionDate =
-			sEStats.checkQualityFrom(storage::iterator, extractionDate,  Premium.allTypes(), premiumTypes);
+			sEStats.checkQualityFrom(storage, extractionDate,  Premium.allTypes(), premiumTypes);
 		String reportDetail = (String)qualityCheckResult.get("report.detail");
 		String reportDetailFromExtractionDate = (String)qualityCheckResultFromExtractionDate.get("report.detail");
 		String basePath = new File(storage.getAbsolutePath()).getParentFile().getAbsolutePath() + File.separator + storage.getNameWithoutExtension();
@@ -1072,7 +1072,7 @@ public class SELotterySimpleSimulator extends Shared {
 			fontStyle.setUnderline(XSSFFont.U_SINGLE);
 			hyperLinkStyle.setFont(fontStyle);
 		}
-		Map<String, Integer> results = allTimeStats.checkFor(extractionDate, storage::iterator);
+		Map<String, Integer> results = allTimeStats.checkFor(extractionDate, storage);
 		Cell cell = row.createCell(getOrPutAndGetCellIndex(row.getSheet(), EXTRACTION_DATE_LABEL));
 		cell.setCellStyle(dateCellStyle);
 		cell.setCellValue(TimeUtils.toDate(extractionDate));
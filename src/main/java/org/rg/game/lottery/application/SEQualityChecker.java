@@ -29,7 +29,7 @@ public class SEQualityChecker extends Shared {
 				String[] dataInfoSplitted = dateInfo.getKey().split("\\\\");
 				Storage storage = PersistentStorage.restore(dataInfoSplitted[0], dataInfoSplitted[dataInfoSplitted.length - 1]);
 				storage.printAll();
-				Map<String, Object> report = getSEStats().checkQuality(storage::iterator);
+				Map<String, Object> report = getSEStats().checkQuality(storage);
 				if ((boolean)dateInfo.getValue()) {
 					LogUtils.INSTANCE.info("\t" + ((String)report.get("report.detail")).replace("\n", "\n\t"));
 				}
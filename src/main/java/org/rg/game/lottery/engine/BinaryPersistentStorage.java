@@ -0,0 +1,317 @@
+package org.rg.game.lottery.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.burningwave.Throwables;
+import org.rg.game.core.LogUtils;
+
+//Le combinazioni vengono memorizzate in un file binario a record di lunghezza fissa (un byte per numero) preceduti
+//da una intestazione (magic, versione, numero di componenti, numero di combinazioni), mentre il report testuale
+//viene scritto nel file di testo affiancato
+public class BinaryPersistentStorage extends PersistentStorage {
+	static final String EXTENSION = ".bin";
+	static final byte[] MAGIC = "SECB".getBytes(StandardCharsets.US_ASCII);
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = MAGIC.length + 2 + Integer.BYTES;
+	private static final int RECORDS_PER_READ = 8192;
+
+	String combosAbsolutePath;
+	int combinationCount;
+	OutputStream combosOutputStream;
+
+	public BinaryPersistentStorage(
+		LocalDate extractionDate,
+		int combinationCount,
+		int numberOfCombos,
+		String group,
+		String suffix
+	) {
+		super(extractionDate, combinationCount, numberOfCombos, group, suffix);
+		this.combinationCount = combinationCount;
+		this.combosAbsolutePath = toCombosAbsolutePath(absolutePath);
+		try {
+			combosOutputStream = new BufferedOutputStream(new FileOutputStream(combosAbsolutePath, false));
+			combosOutputStream.write(buildHeader(combinationCount, 0));
+			combosOutputStream.flush();
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private BinaryPersistentStorage(String group, String fileName) {
+		super(group, fileName);
+		this.combosAbsolutePath = toCombosAbsolutePath(absolutePath);
+	}
+
+	static boolean exists(String group, String fileName) {
+		return new File(toCombosAbsolutePath(buildWorkingPath(group) + File.separator + fileName)).exists();
+	}
+
+	public static BinaryPersistentStorage restore(String group, String fileName) {
+		BinaryPersistentStorage storage = new BinaryPersistentStorage(group, fileName) {
+			@Override
+			public boolean addCombo(List<Integer> selectedCombo) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public boolean addLine() {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public boolean addLine(String value) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public void addUnindexedCombo(List<Integer> selectedCombo) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+		};
+		try (RandomAccessFile combosFile = new RandomAccessFile(storage.combosAbsolutePath, "r")) {
+			byte[] header = new byte[HEADER_SIZE];
+			combosFile.readFully(header);
+			ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+			byte[] magic = new byte[MAGIC.length];
+			headerBuffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(storage.combosAbsolutePath + " is not a valid combo file");
+			}
+			headerBuffer.get();
+			storage.combinationCount = headerBuffer.get();
+			//Il numero di combinazioni dell'intestazione viene aggiornato solo alla chiusura: durante la
+			//scrittura fa fede la dimensione del file
+			storage.size = (int)((combosFile.length() - HEADER_SIZE) / storage.combinationCount);
+		} catch (FileNotFoundException exc) {
+			return null;
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+		return storage;
+	}
+
+	static String toCombosAbsolutePath(String absolutePath) {
+		return absolutePath.substring(0, absolutePath.lastIndexOf(".")) + EXTENSION;
+	}
+
+	private static byte[] buildHeader(int combinationCount, int size) {
+		return ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).put(VERSION).put((byte)combinationCount).putInt(size).array();
+	}
+
+	@Override
+	String getCacheKey() {
+		File combosFile = new File(combosAbsolutePath);
+		return combosAbsolutePath + ";" + combosFile.length() + ";" + combosFile.lastModified();
+	}
+
+	public String getCombosAbsolutePath() {
+		return combosAbsolutePath;
+	}
+
+	@Override
+	void writeCombo(List<Integer> combo) {
+		try {
+			for (Integer number : combo) {
+				combosOutputStream.write(number);
+			}
+			++size;
+			for (Integer number : combo) {
+				Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
+				occurrences.put(number, counter);
+			}
+			flushIfNeeded();
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (combosOutputStream != null && isClosed == null) {
+			try {
+				combosOutputStream.flush();
+			} catch (IOException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+		super.flush();
+	}
+
+	@Override
+	public List<Integer> getCombo(int idx) {
+		if (idx < 0 || idx >= size) {
+			return null;
+		}
+		flush();
+		try (RandomAccessFile combosFile = new RandomAccessFile(combosAbsolutePath, "r")) {
+			byte[] record = new byte[combinationCount];
+			combosFile.seek(HEADER_SIZE + (long)idx * combinationCount);
+			combosFile.readFully(record);
+			return toCombo(record, 0);
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private List<Integer> toCombo(byte[] records, int offset) {
+		List<Integer> combo = new ArrayList<>(combinationCount);
+		for (int i = offset; i < offset + combinationCount; i++) {
+			combo.add(records[i] & 0xFF);
+		}
+		return combo;
+	}
+
+	@Override
+	public void forEach(IntComboConsumer action) {
+		flush();
+		int size = this.size;
+		try (FileChannel channel = FileChannel.open(new File(combosAbsolutePath).toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, Math.min(size, RECORDS_PER_READ) * combinationCount));
+			byte[] records = buffer.array();
+			int[] combo = new int[combinationCount];
+			long position = HEADER_SIZE;
+			for (int readCombos = 0; readCombos < size; ) {
+				buffer.clear();
+				buffer.limit(Math.min(buffer.capacity(), (size - readCombos) * combinationCount));
+				while (buffer.hasRemaining()) {
+					int readBytes = channel.read(buffer, position);
+					if (readBytes < 0) {
+						throw new IOException("Unexpected end of file " + combosAbsolutePath);
+					}
+					position += readBytes;
+				}
+				for (int offset = 0; offset < buffer.limit(); readCombos++) {
+					for (int i = 0; i < combinationCount; i++) {
+						combo[i] = records[offset++] & 0xFF;
+					}
+					action.accept(combo);
+				}
+			}
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	@Override
+	public Iterator<List<Integer>> iterator() {
+		flush();
+		try {
+			FileChannel channel = FileChannel.open(new File(combosAbsolutePath).toPath(), StandardOpenOption.READ);
+			int size = this.size;
+			return new Iterator<List<Integer>>() {
+				ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, Math.min(size, RECORDS_PER_READ) * combinationCount));
+				long position = HEADER_SIZE;
+				int readCombos = 0;
+				int offset = buffer.limit();
+
+				@Override
+				public boolean hasNext() {
+					if (readCombos >= size) {
+						close();
+						return false;
+					}
+					return true;
+				}
+
+				@Override
+				public List<Integer> next() {
+					if (readCombos >= size) {
+						throw new NoSuchElementException("No combo available");
+					}
+					if (offset >= buffer.limit()) {
+						fill();
+					}
+					List<Integer> combo = toCombo(buffer.array(), offset);
+					offset += combinationCount;
+					if (++readCombos >= size) {
+						close();
+					}
+					return combo;
+				}
+
+				private void fill() {
+					try {
+						buffer.clear();
+						buffer.limit(Math.min(buffer.capacity(), (size - readCombos) * combinationCount));
+						while (buffer.hasRemaining()) {
+							int readBytes = channel.read(buffer, position);
+							if (readBytes < 0) {
+								throw new IOException("Unexpected end of file " + combosAbsolutePath);
+							}
+							position += readBytes;
+						}
+						buffer.flip();
+						offset = 0;
+					} catch (IOException exc) {
+						close();
+						Throwables.INSTANCE.throwException(exc);
+					}
+				}
+
+				private void close() {
+					try {
+						channel.close();
+					} catch (IOException exc) {
+						Throwables.INSTANCE.throwException(exc);
+					}
+				}
+
+			};
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	@Override
+	public void printAll() {
+		Iterator<List<Integer>> comboIterator = iterator();
+		while (comboIterator.hasNext()) {
+			LogUtils.INSTANCE.info(ComboHandler.toString(comboIterator.next()));
+		}
+		super.printAll();
+	}
+
+	@Override
+	public void close() {
+		//Il file binario viene completato prima che la chiusura del report lo renda disponibile agli altri processi
+		if (combosOutputStream != null && isClosed == null && !deleted) {
+			try {
+				combosOutputStream.close();
+				try (RandomAccessFile combosFile = new RandomAccessFile(combosAbsolutePath, "rw")) {
+					combosFile.write(buildHeader(combinationCount, size));
+				}
+			} catch (IOException exc) {
+				LogUtils.INSTANCE.error(exc);
+			}
+		}
+		super.close();
+	}
+
+	@Override
+	public void delete() {
+		if (combosOutputStream != null) {
+			try {
+				combosOutputStream.close();
+			} catch (IOException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+		super.delete();
+		new File(combosAbsolutePath).delete();
+	}
+
+}
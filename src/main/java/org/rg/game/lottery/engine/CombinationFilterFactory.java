@@ -5,21 +5,40 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.function.DoublePredicate;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import org.rg.game.core.CollectionUtils;
+import org.rg.game.core.ConcurrentLRUCache;
 import org.rg.game.core.LogUtils;
 
 public class CombinationFilterFactory {
 	public static final CombinationFilterFactory INSTANCE;
+	//Numero di combinazioni per blocco nella valutazione a blocchi: con 6 colonne il blocco resta nella cache L2
+	public static final int BLOCK_SIZE = 4096;
+	private static final int OPTIMIZATION_SAMPLE_SIZE = 4096;
+	private static final double INTERPRETED_EXPRESSION_COST = 200;
+
 	private PredicateExpressionParser<List<Integer>> expressionEngine;
+	private List<LeafBuilder> leafBuilders;
+	private ConcurrentLRUCache<String, IntComboPredicate.Node> compiledFilters;
+	private ConcurrentLRUCache<String, IntComboPredicate.Node> optimizedFilters;
+	private ConcurrentLRUCache<String, IntComboPredicate> executableFilters;
+	private boolean bytecodeBackendEnabled;
+	private boolean profilingEnabled;
+	private Set<IntComboPredicate.Profiled> profiledFilters;
 
 	static {
 		INSTANCE = new CombinationFilterFactory();
@@ -31,6 +50,28 @@ public class CombinationFilterFactory {
 	private CombinationFilterFactory() {
 		expressionEngine = new PredicateExpressionParser<>();
 		setupExpressionEngine();
+		int cacheMaxSize = Integer.parseInt(CollectionUtils.INSTANCE.retrieveValue("combination.filter.cache.max-size", "1000"));
+		//Le chiavi sono le espressioni dei filtri che possono essere lunghe decine di KB: il peso di una voce e' quindi
+		//la lunghezza della sua chiave
+		long cacheMaxWeight = Long.parseLong(CollectionUtils.INSTANCE.retrieveValue("combination.filter.cache.max-weight", "16000000"));
+		compiledFilters = new ConcurrentLRUCache<>(cacheMaxSize, cacheMaxWeight, (key, value) -> key.length(), value -> true);
+		optimizedFilters = new ConcurrentLRUCache<>(cacheMaxSize, cacheMaxWeight, (key, value) -> key.length(), value -> true);
+		executableFilters = new ConcurrentLRUCache<>(cacheMaxSize, cacheMaxWeight, (key, value) -> key.length(), value -> true);
+		bytecodeBackendEnabled = "bytecode".equalsIgnoreCase(
+			CollectionUtils.INSTANCE.retrieveValue("combination.filter.backend", "tree").trim()
+		);
+		String bytecodeBackendUnsupportedReason;
+		if (bytecodeBackendEnabled && (bytecodeBackendUnsupportedReason = IntComboPredicateGenerator.getUnsupportedReason()) != null) {
+			LogUtils.INSTANCE.warn(
+				"The bytecode backend of the combination filters is not available (" + bytecodeBackendUnsupportedReason +
+				"): the tree backend will be used"
+			);
+			bytecodeBackendEnabled = false;
+		}
+		profilingEnabled = Boolean.parseBoolean(
+			CollectionUtils.INSTANCE.retrieveValue("combination.filter.profile", "false").trim()
+		);
+		profiledFilters = ConcurrentHashMap.newKeySet();
 	}
 
 	public Predicate<List<Integer>> parse(String filterAsString) {
@@ -41,139 +82,585 @@ public class CombinationFilterFactory {
 		if (filterAsString == null || filterAsString.isEmpty()) {
 			return numbers -> true;
 		}
-		Predicate<List<Integer>> filter = expressionEngine.processComplex(filterAsString.replace("\t", " ").replace("\n", "").replace("\r", ""), logFalseResults);
-		return combo -> {
-			Collections.sort(combo);
-			return filter.test(combo);
-		};
+		String expression = normalize(filterAsString);
+		if (logFalseResults) {
+			Predicate<List<Integer>> filter = expressionEngine.processComplex(expression, logFalseResults);
+			return combo -> {
+				Collections.sort(combo);
+				return filter.test(combo);
+			};
+		}
+		String cacheKey = toCacheKey(expression);
+		IntComboPredicate filter = executableFilters.getOrBuild(cacheKey, () -> toExecutable(compile(cacheKey)));
+		return combo ->
+			filter.test(toSortedArray(combo));
 	}
 
+	//Il filtro viene compilato e ottimizzato sulle combinazioni che e' possibile generare con i numeri indicati
+	public Predicate<List<Integer>> parse(String filterAsString, Collection<Integer> numbers, int combinationComponents) {
+		if (filterAsString == null || filterAsString.isEmpty()) {
+			return combo -> true;
+		}
+		IntComboPredicate filter = compile(filterAsString, numbers, combinationComponents);
+		return combo ->
+			filter.test(toSortedArray(combo));
+	}
 
-	private void setupExpressionEngine() {
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("emainder"),
-			expression ->
-				paramters ->
-				buildPredicate(expression, this::buildRemainderFilter, (boolean)paramters[0])
-		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("sameLastDigit"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::buildSameLastDigitFilter, (boolean)paramters[0])
-		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("consecutiveLastDigit"),
-			expression ->
-				paramters ->
-				buildPredicate(expression, this::buildConsecutiveLastDigitFilter, (boolean)paramters[0])
+	public IntComboPredicate compile(String filterAsString, Collection<Integer> numbers, int combinationComponents) {
+		return executableFilters.getOrBuild(
+			toCacheKey(filterAsString) + "|" + numbers + "|" + combinationComponents,
+			() -> toExecutable(optimize(filterAsString, numbers, combinationComponents))
 		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("consecutiveNumber"),
-			expression ->
-				paramters ->
-				buildPredicate(expression, this::buildConsecutiveNumberFilter, (boolean)paramters[0])
-		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("radius"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::buildRadiusFilter, (boolean)paramters[0])
-		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("sumOfPower"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::buildSumOfPowerFilter, (boolean)paramters[0])
-		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("sum"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::buildSumFilter, (boolean)paramters[0])
+	}
+
+	//Per la valutazione a blocchi va usato l'albero ottimizzato e non il suo eseguibile perche' solo i nodi
+	//dell'albero valutano il blocco colonna per colonna
+	public IntComboPredicate.Node optimize(String filterAsString, Collection<Integer> numbers, int combinationComponents) {
+		String expression = toCacheKey(filterAsString);
+		return optimizedFilters.getOrBuild(
+			expression + "|" + numbers + "|" + combinationComponents,
+			() -> profilingEnabled ?
+				profile(optimize(compile(expression), numbers, combinationComponents)) :
+				optimize(compile(expression), numbers, combinationComponents)
 		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("in"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::inFilter, (boolean)paramters[0])
+	}
+
+	//Valuta il filtro sulle prime count combinazioni del blocco (vedi ComboBlockIterator) e imposta in results i
+	//bit di quelle accettate
+	public void test(IntComboPredicate predicate, int[][] columns, int count, long[] results) {
+		int wordsCount = (count + Long.SIZE - 1) >>> 6;
+		Arrays.fill(results, 0, wordsCount, -1L);
+		Arrays.fill(results, wordsCount, results.length, 0L);
+		if (count % Long.SIZE != 0) {
+			results[wordsCount - 1] = (1L << count) - 1;
+		}
+		predicate.test(columns, count, results);
+	}
+
+	//Con il backend 'bytecode' l'albero viene tradotto in una classe generata (vedi IntComboPredicateGenerator).
+	//Con la profilazione attiva viene invece eseguita una copia dell'albero che misura ogni nodo
+	public IntComboPredicate toExecutable(IntComboPredicate.Node predicate) {
+		if (predicate instanceof IntComboPredicate.Profiled) {
+			return predicate;
+		}
+		if (profilingEnabled) {
+			return profile(predicate);
+		}
+		return bytecodeBackendEnabled ?
+			IntComboPredicateGenerator.generate(predicate) :
+			predicate;
+	}
+
+	public IntComboPredicate.Profiled profile(IntComboPredicate.Node predicate) {
+		IntComboPredicate.Profiled profiledPredicate = toProfiled(predicate);
+		profiledFilters.add(profiledPredicate);
+		return profiledPredicate;
+	}
+
+	private IntComboPredicate.Profiled toProfiled(IntComboPredicate.Node predicate) {
+		if (predicate instanceof IntComboPredicate.Composite) {
+			IntComboPredicate.Composite composite = (IntComboPredicate.Composite)predicate;
+			List<IntComboPredicate.Node> children = new ArrayList<>();
+			for (IntComboPredicate.Node child : composite.children) {
+				children.add(toProfiled(child));
+			}
+			IntComboPredicate.Composite profiledComposite = composite instanceof IntComboPredicate.And ?
+				new IntComboPredicate.And(children) :
+				new IntComboPredicate.Or(children);
+			profiledComposite.cost = composite.cost;
+			profiledComposite.passRate = composite.passRate;
+			return new IntComboPredicate.Profiled(profiledComposite);
+		}
+		return new IntComboPredicate.Profiled(predicate);
+	}
+
+	//Restituisce le somme a cui il filtro limita le combinazioni accettate (quelle ammesse da tutti i filtri 'sum' in
+	//AND alla radice) oppure null se il filtro non pone vincoli sulla somma
+	public IntPredicate retrieveAllowedSums(IntComboPredicate.Node predicate) {
+		if (predicate instanceof IntComboPredicate.Profiled) {
+			return retrieveAllowedSums(((IntComboPredicate.Profiled)predicate).getNode());
+		}
+		if (predicate instanceof IntComboPredicate.And) {
+			IntPredicate allowedSums = null;
+			for (IntComboPredicate.Node child : ((IntComboPredicate.And)predicate).children) {
+				IntPredicate childAllowedSums = retrieveAllowedSums(child);
+				if (childAllowedSums != null) {
+					allowedSums = allowedSums != null ? allowedSums.and(childAllowedSums) : childAllowedSums;
+				}
+			}
+			return allowedSums;
+		}
+		if (predicate instanceof IntComboPredicate.Leaf) {
+			IntComboPredicate.Leaf leaf = (IntComboPredicate.Leaf)predicate;
+			if (leaf.predicate instanceof IntComboPredicate.Aggregate && leaf.expression.replaceAll("\\s+","").startsWith("sum:")) {
+				return ((IntComboPredicate.Aggregate)leaf.predicate).acceptedValues;
+			}
+		}
+		return null;
+	}
+
+	//Scrive il report dei filtri profilati che hanno valutato almeno una combinazione dall'ultimo report
+	//I filtri riportati vengono dimenticati e rimossi dalle cache: al prossimo utilizzo ne verra' costruita e
+	//registrata una nuova copia profilata in modo che l'insieme non cresca indefinitamente
+	public void logProfiles() {
+		Iterator<IntComboPredicate.Profiled> profiledFiltersIterator = profiledFilters.iterator();
+		while (profiledFiltersIterator.hasNext()) {
+			IntComboPredicate.Profiled profiledFilter = profiledFiltersIterator.next();
+			profiledFiltersIterator.remove();
+			optimizedFilters.removeIf(filter -> filter == profiledFilter);
+			executableFilters.removeIf(filter -> filter == profiledFilter);
+			if (profiledFilter.getEvaluations() > 0) {
+				StringBuilder report = new StringBuilder("Filter profile:\n");
+				describeProfile(profiledFilter, report, 1);
+				LogUtils.INSTANCE.info(report.toString());
+			}
+		}
+	}
+
+	private void describeProfile(IntComboPredicate.Profiled predicate, StringBuilder output, int depth) {
+		for (int i = 0; i < depth; i++) {
+			output.append("\t");
+		}
+		IntComboPredicate.Node node = predicate.getNode();
+		String description = node instanceof IntComboPredicate.Composite ?
+			((IntComboPredicate.Composite)node).getOperator() :
+			node.toString();
+		long evaluations = predicate.getEvaluations();
+		output.append(
+			description.length() > 100 ? description.substring(0, 97) + "..." : description
+		).append(" (evaluations: ").append(integerFormat.format(evaluations))
+		.append(", passed: ").append(decimalFormat.format(evaluations > 0 ? predicate.getPasses() * 100d / evaluations : 0))
+		.append("%, time: ").append(integerFormat.format(predicate.getElapsedNanos() / 1_000_000)).append("ms")
+		.append(", ").append(decimalFormat.format(evaluations > 0 ? predicate.getElapsedNanos() / (double)evaluations : 0))
+		.append("ns/evaluation)\n");
+		if (node instanceof IntComboPredicate.Composite) {
+			for (IntComboPredicate.Node child : ((IntComboPredicate.Composite)node).children) {
+				describeProfile((IntComboPredicate.Profiled)child, output, depth + 1);
+			}
+		}
+	}
+
+	private String normalize(String filterAsString) {
+		return filterAsString.replace("\t", " ").replace("\n", "").replace("\r", "");
+	}
+
+	//Gli spazi multipli non cambiano il significato dell'espressione per cui vengono ridotti ad uno solo
+	public String toCacheKey(String filterAsString) {
+		return normalize(filterAsString).replaceAll(" {2,}", " ").trim();
+	}
+
+	public long getCacheHitCount() {
+		return compiledFilters.getHitCount() + optimizedFilters.getHitCount() + executableFilters.getHitCount();
+	}
+
+	public long getCacheMissCount() {
+		return compiledFilters.getMissCount() + optimizedFilters.getMissCount() + executableFilters.getMissCount();
+	}
+
+	public String getCacheStatistics() {
+		return "compiled filters (" + compiledFilters.getStatistics() + "), optimized filters (" + optimizedFilters.getStatistics() +
+			"), executable filters (" + executableFilters.getStatistics() + ")";
+	}
+
+	//Come per il filtro interpretato la combinazione viene ordinata se non lo e' gia'
+	static int[] toSortedArray(List<Integer> combo) {
+		int[] comboAsArray = new int[combo.size()];
+		for (int i = 0; i < comboAsArray.length; i++) {
+			if ((comboAsArray[i] = combo.get(i)) < (i > 0 ? comboAsArray[i - 1] : Integer.MIN_VALUE)) {
+				Collections.sort(combo);
+				return toSortedArray(combo);
+			}
+		}
+		return comboAsArray;
+	}
+
+	static List<Integer> toList(int[] combo) {
+		List<Integer> comboAsList = new ArrayList<>(combo.length);
+		for (int number : combo) {
+			comboAsList.add(number);
+		}
+		return comboAsList;
+	}
+
+	public IntComboPredicate.Node compile(String filterAsString) {
+		if (filterAsString == null || filterAsString.isEmpty()) {
+			return new IntComboPredicate.Leaf("true", combo -> true, 1);
+		}
+		String expression = toCacheKey(filterAsString);
+		return compiledFilters.getOrBuild(expression, () -> compileExpression(expression));
+	}
+
+	//I figli dei nodi AND e OR vengono riordinati in modo da valutare per primi quelli che costano meno e che
+	//decidono piu' spesso l'esito (rifiutando la combinazione per l'AND, accettandola per l'OR)
+	public IntComboPredicate.Node optimize(IntComboPredicate.Node predicate, Collection<Integer> numbers, int combinationComponents) {
+		if (!(predicate instanceof IntComboPredicate.Composite) || numbers.size() < combinationComponents) {
+			return predicate;
+		}
+		int[][] sample = buildSample(numbers, combinationComponents);
+		IntComboPredicate.Node optimizedPredicate = optimize(predicate, sample);
+		StringBuilder plan = new StringBuilder("Filter execution plan:\n");
+		describe(optimizedPredicate, plan, 1);
+		LogUtils.INSTANCE.info(plan.toString());
+		return optimizedPredicate;
+	}
+
+	private int[][] buildSample(Collection<Integer> numbers, int combinationComponents) {
+		int[] numbersAsArray = numbers.stream().mapToInt(Integer::intValue).toArray();
+		//Il seme e' fisso perche' a parita' di filtro e numeri il piano scelto sia sempre lo stesso
+		Random random = new Random(numbersAsArray.length * 31L + combinationComponents);
+		int[][] sample = new int[OPTIMIZATION_SAMPLE_SIZE][];
+		for (int i = 0; i < sample.length; i++) {
+			for (int j = 0; j < combinationComponents; j++) {
+				int k = j + random.nextInt(numbersAsArray.length - j);
+				int number = numbersAsArray[k];
+				numbersAsArray[k] = numbersAsArray[j];
+				numbersAsArray[j] = number;
+			}
+			sample[i] = Arrays.copyOf(numbersAsArray, combinationComponents);
+			Arrays.sort(sample[i]);
+		}
+		return sample;
+	}
+
+	private IntComboPredicate.Node optimize(IntComboPredicate.Node predicate, int[][] sample) {
+		if (predicate instanceof IntComboPredicate.Composite) {
+			IntComboPredicate.Composite composite = (IntComboPredicate.Composite)predicate;
+			boolean isAnd = composite instanceof IntComboPredicate.And;
+			List<IntComboPredicate.Node> children = new ArrayList<>();
+			for (IntComboPredicate.Node child : composite.children) {
+				children.add(optimize(child, sample));
+			}
+			//Il rango e' il costo diviso per la probabilita' che il figlio concluda la valutazione
+			children.sort(Comparator.comparingDouble(child -> {
+				double shortCircuitRate = isAnd ? 1 - child.passRate : child.passRate;
+				return shortCircuitRate > 0 ? child.cost / shortCircuitRate : Double.MAX_VALUE;
+			}));
+			IntComboPredicate.Composite optimizedComposite = isAnd ?
+				new IntComboPredicate.And(children) :
+				new IntComboPredicate.Or(children);
+			//Costo atteso supponendo i figli indipendenti
+			double expectedCost = 0;
+			double reachRate = 1;
+			for (IntComboPredicate.Node child : children) {
+				expectedCost += reachRate * child.cost;
+				reachRate *= isAnd ? child.passRate : 1 - child.passRate;
+			}
+			optimizedComposite.cost = expectedCost;
+			predicate = optimizedComposite;
+		} else {
+			//Le foglie possono essere condivise tramite la cache dei filtri compilati per cui non vengono modificate
+			IntComboPredicate.Leaf leaf = (IntComboPredicate.Leaf)predicate;
+			predicate = new IntComboPredicate.Leaf(leaf.expression, leaf.predicate, leaf.cost);
+		}
+		int passed = 0;
+		for (int[] combo : sample) {
+			if (predicate.test(combo)) {
+				passed++;
+			}
+		}
+		predicate.passRate = (double)passed / sample.length;
+		return predicate;
+	}
+
+	private void describe(IntComboPredicate.Node predicate, StringBuilder output, int depth) {
+		for (int i = 0; i < depth; i++) {
+			output.append("\t");
+		}
+		String description = predicate instanceof IntComboPredicate.Composite ?
+			((IntComboPredicate.Composite)predicate).getOperator() :
+			predicate.toString();
+		output.append(
+			description.length() > 100 ? description.substring(0, 97) + "..." : description
+		).append(" (cost: ").append(decimalFormat.format(predicate.cost))
+		.append(", passed: ").append(decimalFormat.format(predicate.passRate * 100)).append("%)\n");
+		if (predicate instanceof IntComboPredicate.Composite) {
+			for (IntComboPredicate.Node child : ((IntComboPredicate.Composite)predicate).children) {
+				describe(child, output, depth + 1);
+			}
+		}
+	}
+
+	//Vengono compilati solo i gruppi che usano un unico operatore logico: negli altri casi (operatori misti,
+	//parentesi non bilanciate o espressioni non riconosciute) la precedenza resta quella del motore interpretato
+	private IntComboPredicate.Node compileExpression(String expression) {
+		List<String> terms = new ArrayList<>();
+		Character operator = null;
+		int depth = 0;
+		int termStart = 0;
+		for (int i = 0; i < expression.length(); i++) {
+			char character = expression.charAt(i);
+			if (character == '(') {
+				depth++;
+			} else if (character == ')') {
+				if (--depth < 0) {
+					return interpreted(expression);
+				}
+			} else if (depth == 0 && (character == '&' || character == '|')) {
+				if (operator != null && operator != character) {
+					return interpreted(expression);
+				}
+				operator = character;
+				terms.add(expression.substring(termStart, i));
+				termStart = i + 1;
+			}
+		}
+		if (depth != 0) {
+			return interpreted(expression);
+		}
+		terms.add(expression.substring(termStart));
+		List<IntComboPredicate.Node> children = new ArrayList<>();
+		for (String term : terms) {
+			children.add(compileTerm(term));
+		}
+		if (children.size() == 1) {
+			return children.get(0);
+		}
+		return operator == '&' ?
+			new IntComboPredicate.And(children) :
+			new IntComboPredicate.Or(children);
+	}
+
+	private IntComboPredicate.Node compileTerm(String term) {
+		String trimmedTerm = term.trim();
+		if (trimmedTerm.startsWith("(") && findClosingBracket(trimmedTerm) == trimmedTerm.length() - 1) {
+			return compileExpression(trimmedTerm.substring(1, trimmedTerm.length() - 1));
+		}
+		if (!trimmedTerm.isEmpty() && trimmedTerm.indexOf('(') < 0 && trimmedTerm.indexOf('!') < 0) {
+			for (LeafBuilder leafBuilder : leafBuilders) {
+				if (leafBuilder.matcher.test(trimmedTerm)) {
+					return new IntComboPredicate.Leaf(
+						trimmedTerm,
+						leafBuilder.predicateBuilder.apply(trimmedTerm),
+						leafBuilder.costEstimator.applyAsDouble(trimmedTerm)
+					);
+				}
+			}
+		}
+		return interpreted(term);
+	}
+
+	private int findClosingBracket(String expression) {
+		int depth = 0;
+		for (int i = 0; i < expression.length(); i++) {
+			if (expression.charAt(i) == '(') {
+				depth++;
+			} else if (expression.charAt(i) == ')' && --depth == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private IntComboPredicate.Node interpreted(String expression) {
+		Predicate<List<Integer>> predicate = expressionEngine.processComplex(expression, false);
+		return new IntComboPredicate.Leaf(
+			expression.trim(), combo -> predicate.test(toList(combo)), INTERPRETED_EXPRESSION_COST
 		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("->"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, this::buildNumberGroupFilter, (boolean)paramters[0])
+	}
+
+	private void setupExpressionEngine() {
+		leafBuilders = new ArrayList<>();
+		//I costi sono stimati in operazioni elementari per una combinazione di 6 numeri
+		addLeafBuilder(
+			expression -> expression.contains("historyOverlap"),
+			this::buildHistoryOverlapFilter,
+			expression -> 2 * expression.split("/").length
 		);
-		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("true"),
-			expression ->
-				paramters ->
-					buildPredicate(expression, exp -> combo -> true, (boolean)paramters[0])
+		addLeafBuilder(expression -> expression.contains("emainder"), this::buildRemainderFilter, expression -> 12);
+		addLeafBuilder(expression -> expression.contains("sameLastDigit"), this::buildSameLastDigitFilter, expression -> 8);
+		addLeafBuilder(expression -> expression.contains("consecutiveLastDigit"), this::buildConsecutiveLastDigitFilter, expression -> 16);
+		addLeafBuilder(expression -> expression.contains("consecutiveNumber"), this::buildConsecutiveNumberFilter, expression -> 6);
+		addLeafBuilder(expression -> expression.contains("radius"), this::buildRadiusFilter, expression -> 36);
+		addLeafBuilder(expression -> expression.contains("sumOfPower"), this::buildSumOfPowerFilter, expression -> 8);
+		addLeafBuilder(expression -> expression.contains("sum"), this::buildSumFilter, expression -> 6);
+		addLeafBuilder(expression -> expression.contains("in"), this::inFilter, expression -> 6);
+		addLeafBuilder(
+			expression -> expression.contains("->"),
+			this::buildNumberGroupFilter,
+			expression -> 6 * expression.split(";").length
 		);
+		addLeafBuilder(expression -> expression.contains("true"), exp -> combo -> true, expression -> 1);
+		addLeafBuilder(expression -> expression.contains("false"), exp -> combo -> false, expression -> 1);
+	}
+
+	private void addLeafBuilder(
+		Predicate<String> matcher,
+		Function<String, IntComboPredicate> predicateBuilder,
+		ToDoubleFunction<String> costEstimator
+	) {
+		leafBuilders.add(new LeafBuilder(matcher, predicateBuilder, costEstimator));
 		expressionEngine.addSimpleExpression(
-			expression ->
-				expression.contains("false"),
+			matcher,
 			expression ->
 				paramters ->
-					buildPredicate(expression, exp -> combo -> false, (boolean)paramters[0])
+					buildPredicate(expression, predicateBuilder, (boolean)paramters[0])
 		);
 	}
 
-
-	private Predicate<List<Integer>> inFilter(
+	private IntComboPredicate inFilter(
 		String filterAsString
 	) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("in");
 		String[] options = operationOptions[1].split(":");
-		List<Integer> numbers = Arrays.stream(options[0].split(",")).map(Integer::parseInt).collect(Collectors.toList());
+		boolean[] numbers = toLookupTable(
+			Arrays.stream(options[0].split(",")).map(Integer::parseInt).collect(Collectors.toList())
+		);
 		String[] boundsAsString = options[1].split(",");
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
+		int minCounter = Integer.parseInt(boundsAsString[0]);
+		int maxCounter = Integer.parseInt(boundsAsString[1]);
 		return combo -> {
 			int counter = 0;
-			for (Integer number : combo) {
-				if (numbers.indexOf(number) > -1) {
+			for (int number : combo) {
+				if (number >= 0 && number < numbers.length && numbers[number]) {
 					counter++;
 				}
 			}
-			return counter >= bounds[0] && counter <= bounds[1];
+			return counter >= minCounter && counter <= maxCounter;
 		};
 	}
 
+	//Le combinazioni dello storico sono memorizzate come maschere di bit su due long per cui la sovrapposizione
+	//con la combinazione da verificare si calcola con due popcount
+	private IntComboPredicate buildHistoryOverlapFilter(String filterAsString) {
+		String[] options = filterAsString.replaceAll("\\s+","").split("historyOverlap")[1].split(":");
+		String[] combos = options[0].split("/");
+		long[] lowBits = new long[combos.length];
+		long[] highBits = new long[combos.length];
+		for (int i = 0; i < combos.length; i++) {
+			for (String numberAsString : combos[i].split(",")) {
+				int number = Integer.parseInt(numberAsString);
+				if (number < 0 || number > 127) {
+					throw new IllegalArgumentException("Number " + number + " is not supported by historyOverlap");
+				}
+				if (number < 64) {
+					lowBits[i] |= 1L << number;
+				} else {
+					highBits[i] |= 1L << (number - 64);
+				}
+			}
+		}
+		String[] boundsAsString = options[1].split(",");
+		int minCounter = Integer.parseInt(boundsAsString[0]);
+		int maxCounter = Integer.parseInt(boundsAsString[1]);
+		return combo -> {
+			long comboLowBits = 0;
+			long comboHighBits = 0;
+			for (int number : combo) {
+				if (number >= 0 && number < 64) {
+					comboLowBits |= 1L << number;
+				} else if (number >= 64 && number < 128) {
+					comboHighBits |= 1L << (number - 64);
+				}
+			}
+			for (int i = 0; i < lowBits.length; i++) {
+				int counter = Long.bitCount(comboLowBits & lowBits[i]) + Long.bitCount(comboHighBits & highBits[i]);
+				if (counter >= minCounter && counter <= maxCounter) {
+					return true;
+				}
+			}
+			return false;
+		};
+	}
 
-	private Predicate<List<Integer>> buildSumFilter(String filterAsString) {
+	private boolean[] toLookupTable(Collection<Integer> numbers) {
+		int maxNumber = -1;
+		for (Integer number : numbers) {
+			maxNumber = Math.max(maxNumber, number);
+		}
+		boolean[] lookupTable = new boolean[maxNumber + 1];
+		for (Integer number : numbers) {
+			if (number >= 0) {
+				lookupTable[number] = true;
+			}
+		}
+		return lookupTable;
+	}
+
+	private IntPredicate toIntSet(Collection<Integer> numbers) {
+		int[] sortedNumbers = numbers.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+		if (sortedNumbers.length == 0) {
+			return number -> false;
+		}
+		int minNumber = sortedNumbers[0];
+		long range = (long)sortedNumbers[sortedNumbers.length - 1] - minNumber + 1;
+		if (range > 1 << 20) {
+			return number -> Arrays.binarySearch(sortedNumbers, number) >= 0;
+		}
+		boolean[] lookupTable = new boolean[(int)range];
+		for (int number : sortedNumbers) {
+			lookupTable[number - minNumber] = true;
+		}
+		return number -> number >= minNumber && number - minNumber < lookupTable.length && lookupTable[number - minNumber];
+	}
+
+	private IntComboPredicate buildSumFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("sum")[1].split(":");
-		Set<Integer> numbers = retrieveNumbersFromOption(operationOptions[1], TreeSet::new);
-		return combo ->
-			numbers.contains(
-				ComboHandler.sumValues(combo)
-			);
+		IntPredicate numbers = toIntSet(retrieveNumbersFromOption(operationOptions[1], TreeSet::new));
+		return new IntComboPredicate.Aggregate(numbers) {
+
+			@Override
+			int aggregate(int[] combo) {
+				int sum = 0;
+				for (int number : combo) {
+					sum += number;
+				}
+				return sum;
+			}
+
+			@Override
+			void aggregate(int[][] columns, int count, int[] sums) {
+				for (int[] column : columns) {
+					for (int i = 0; i < count; i++) {
+						sums[i] += column[i];
+					}
+				}
+			}
+
+		};
 	}
 
-	private Predicate<List<Integer>> buildSumOfPowerFilter(String filterAsString) {
+	private IntComboPredicate buildSumOfPowerFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("sumOfPower")[1].split(":");
 		List<Integer> operationOptionNumber = retrieveNumbersFromOption(
 			operationOptions[0], ArrayList::new
 		);
 		Integer exponent = operationOptionNumber.get(0);
-		Set<Integer> numbers = retrieveNumbersFromOption(operationOptions[1], TreeSet::new);
-		return combo ->
-			numbers.contains(
-					ComboHandler.sumPowerOfValues(combo, exponent)
-			);
+		IntPredicate numbers = toIntSet(retrieveNumbersFromOption(operationOptions[1], TreeSet::new));
+		int[] powers = new int[128];
+		for (int number = 0; number < powers.length; number++) {
+			powers[number] = (int)Math.pow(number, exponent);
+		}
+		return new IntComboPredicate.Aggregate(numbers) {
 
+			@Override
+			int aggregate(int[] combo) {
+				int sum = 0;
+				for (int number : combo) {
+					sum += power(number);
+				}
+				return sum;
+			}
+
+			@Override
+			void aggregate(int[][] columns, int count, int[] sums) {
+				for (int[] column : columns) {
+					if (exponent == 2) {
+						for (int i = 0; i < count; i++) {
+							sums[i] += column[i] * column[i];
+						}
+					} else {
+						for (int i = 0; i < count; i++) {
+							sums[i] += power(column[i]);
+						}
+					}
+				}
+			}
+
+			private int power(int number) {
+				return number >= 0 && number < powers.length ? powers[number] : (int)Math.pow(number, exponent);
+			}
+
+		};
 	}
 
 	private <C extends Collection<Integer>> C retrieveNumbersFromOption(String numberOptions, Supplier<C> collectionBuilder) {
@@ -195,23 +682,22 @@ public class CombinationFilterFactory {
 		return (C)system;
 	}
 
-	private Predicate<List<Integer>> buildRadiusFilter(String filterAsString) {
+	private IntComboPredicate buildRadiusFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("radius");
 		String[] rangeOptions = operationOptions[0].split("->");
-		Integer leftRangeBounds = rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[0]) : null;
-		Integer rightRangeBounds =  rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[1]) : null;
+		boolean ranged = rangeOptions.length > 1;
+		int leftRangeBounds = ranged ? Integer.parseInt(rangeOptions[0]) : 0;
+		int rightRangeBounds = ranged ? Integer.parseInt(rangeOptions[1]) : 0;
 		String[] options = operationOptions[1].split(":");
 		String[] boundsAsString = options[1].split(",");
 		int leftOffset = Integer.parseInt(options[0].split(",")[0]);
 		int rightOffset = Integer.parseInt(options[0].split(",")[1]);
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
+		int minBound = Integer.parseInt(boundsAsString[0]);
+		int maxBound = Integer.parseInt(boundsAsString[1]);
 		return combo -> {
 			int maxNumbersInRange = 0;
-			for (Integer number : combo) {
-				if (rangeOptions.length > 1) {
+			for (int number : combo) {
+				if (ranged) {
 					if (number > rightRangeBounds) {
 						return true;
 					} else if (number < leftRangeBounds) {
@@ -221,50 +707,50 @@ public class CombinationFilterFactory {
 				int numbersInRangeCounter = 0;
 				int leftBound = number + leftOffset;
 				int rightBound = number + rightOffset;
-				for (Integer innNumber : combo) {
+				for (int innNumber : combo) {
 					if (number != innNumber && innNumber >= leftBound && innNumber <= rightBound) {
 						if (numbersInRangeCounter == 0) {
 							numbersInRangeCounter++;
 						}
-						if (++numbersInRangeCounter > bounds[1]) {
+						if (++numbersInRangeCounter > maxBound) {
 							return false;
 						} else if (numbersInRangeCounter > maxNumbersInRange) {
 							maxNumbersInRange = numbersInRangeCounter;
 						}
 					}
 				}
-				if (rangeOptions.length > 1 && numbersInRangeCounter < bounds[0]) {
+				if (ranged && numbersInRangeCounter < minBound) {
 					return false;
 				}
 			}
-			return rangeOptions.length > 1 || maxNumbersInRange >= bounds[0];
+			return ranged || maxNumbersInRange >= minBound;
 		};
 	}
 
-	private Predicate<List<Integer>> buildConsecutiveNumberFilter(String filterAsString) {
+	private IntComboPredicate buildConsecutiveNumberFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("consecutiveNumber");
 		String[] rangeOptions = operationOptions[0].split("->");
-		Integer leftRangeBounds = rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[0]) : null;
-		Integer rightRangeBounds =  rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[1]) : null;
+		boolean ranged = rangeOptions.length > 1;
+		int leftRangeBounds = ranged ? Integer.parseInt(rangeOptions[0]) : 0;
+		int rightRangeBounds = ranged ? Integer.parseInt(rangeOptions[1]) : 0;
 		String[] options = operationOptions[1].split(":");
 		String[] boundsAsString = options[1].split(",");
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
+		int minBound = Integer.parseInt(boundsAsString[0]);
+		int maxBound = Integer.parseInt(boundsAsString[1]);
 		return combo -> {
 			int counter = 0;
 			int maxConsecutiveNumberCounter = 0;
-			Integer previousNumber = null;
+			boolean hasPreviousNumber = false;
+			int previousNumber = 0;
 			for (int number : combo) {
-				if (rangeOptions.length > 1) {
+				if (ranged) {
 					if (number > rightRangeBounds) {
 						break;
 					} else if (number < leftRangeBounds) {
 						continue;
 					}
 				}
-				if (previousNumber != null && ((number != 0 && previousNumber == number -1) || (number == 0 && previousNumber == 9))) {
+				if (hasPreviousNumber && ((number != 0 && previousNumber == number -1) || (number == 0 && previousNumber == 9))) {
 					if (counter == 0) {
 						counter++;
 					}
@@ -274,142 +760,158 @@ public class CombinationFilterFactory {
 				} else {
 					counter = 0;
 				}
+				hasPreviousNumber = true;
 				previousNumber = number;
 			}
-			return maxConsecutiveNumberCounter >= bounds[0] && maxConsecutiveNumberCounter <= bounds[1];
+			return maxConsecutiveNumberCounter >= minBound && maxConsecutiveNumberCounter <= maxBound;
 		};
 	}
 
-	private Predicate<List<Integer>> buildNumberGroupFilter(String filterAsString) {
+	private IntComboPredicate buildNumberGroupFilter(String filterAsString) {
 		String[] expressions = filterAsString.split(";");
-		int[][] bounds = new int[expressions.length][4];
-		boolean allMinAreZeroTemp = true;
+		int[] lowerBounds = new int[expressions.length];
+		int[] upperBounds = new int[expressions.length];
+		int[] minCounters = new int[expressions.length];
+		int[] maxCounters = new int[expressions.length];
 		for (int i = 0; i < expressions.length; i++) {
 			String[] expression = expressions[i].replaceAll("\\s+","").split(":");
 			String[] boundsAsString = expression[0].split("->");
-			bounds[i][0] = Integer.parseInt(boundsAsString[0]);
-			bounds[i][1] = Integer.parseInt(boundsAsString[1]);
+			lowerBounds[i] = Integer.parseInt(boundsAsString[0]);
+			upperBounds[i] = Integer.parseInt(boundsAsString[1]);
 			String[] values = expression[1].split(",");
-			if ((bounds[i][2] = Integer.parseInt(values[0])) > 0) {
-				allMinAreZeroTemp = false;
-			}
-			bounds[i][3] = Integer.parseInt(values[1]);
+			minCounters[i] = Integer.parseInt(values[0]);
+			maxCounters[i] = Integer.parseInt(values[1]);
 		}
-		boolean allMinAreZero =  allMinAreZeroTemp;
 		return combo -> {
-			int[] checkCounter = new int[bounds.length];
-			for (Integer number : combo) {
-				for (int i = 0; i < bounds.length; i++) {
-					if (number >= bounds[i][0] && number <= bounds[i][1] && ++checkCounter[i] > bounds[i][3]) {
+			for (int i = 0; i < lowerBounds.length; i++) {
+				int counter = 0;
+				for (int number : combo) {
+					if (number >= lowerBounds[i] && number <= upperBounds[i] && ++counter > maxCounters[i]) {
 						return false;
 					}
 				}
-			}
-			if (!allMinAreZero) {
-				for (int i = 0; i < bounds.length; i++) {
-					if (checkCounter[i] < bounds[i][2]) {
-						return false;
-					}
+				if (counter < minCounters[i]) {
+					return false;
 				}
 			}
 			return true;
 		};
 	}
 
-	private Predicate<List<Integer>> buildRemainderFilter(String filterAsString) {
+	private IntComboPredicate buildRemainderFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("noRemainder|remainder");
 		String[] rangeOptions = operationOptions[0].split("->");
-		Integer leftRangeBounds = rangeOptions.length > 1 ?
-			Integer.parseInt(rangeOptions[0]) : null;
-		Integer rightRangeBounds =  rangeOptions.length > 1 ?
-			Integer.parseInt(rangeOptions[1]) : null;
+		boolean ranged = rangeOptions.length > 1;
+		int leftRangeBounds = ranged ? Integer.parseInt(rangeOptions[0]) : 0;
+		int rightRangeBounds = ranged ? Integer.parseInt(rangeOptions[1]) : 0;
 		String[] options = operationOptions[1].split(":");
 		double divisor = options[0].isEmpty() ? 2 : Double.parseDouble(options[0]);
 		String[] boundsAsString = options[1].split(",");
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
-		DoublePredicate evenOrOddTester = filterAsString.contains("noRemainder") ?
-			number -> number % divisor == 0 :
-			number -> number % divisor != 0;
-		return combo -> {
-			int evenOrOddCounter = 0;
-			for (Integer number : combo) {
-				if (rangeOptions.length > 1) {
-					if (number > rightRangeBounds) {
-						break;
-					} else if (number < leftRangeBounds) {
-						continue;
+		int minBound = Integer.parseInt(boundsAsString[0]);
+		int maxBound = Integer.parseInt(boundsAsString[1]);
+		boolean noRemainder = filterAsString.contains("noRemainder");
+		int integerDivisor = (int)divisor;
+		boolean isIntegerDivisor = integerDivisor == divisor && integerDivisor != 0;
+		return new IntComboPredicate.Aggregate(evenOrOddCounter -> evenOrOddCounter >= minBound && evenOrOddCounter <= maxBound) {
+
+			@Override
+			int aggregate(int[] combo) {
+				int evenOrOddCounter = 0;
+				for (int number : combo) {
+					if (ranged) {
+						if (number > rightRangeBounds) {
+							break;
+						} else if (number < leftRangeBounds) {
+							continue;
+						}
+					}
+					if ((number % divisor == 0) == noRemainder) {
+						evenOrOddCounter++;
 					}
 				}
-				if(evenOrOddTester.test(number) && ++evenOrOddCounter > bounds[1]) {
-					return false;
+				return evenOrOddCounter;
+			}
+
+			@Override
+			void aggregate(int[][] columns, int count, int[] evenOrOddCounters) {
+				for (int[] column : columns) {
+					for (int i = 0; i < count; i++) {
+						int number = column[i];
+						boolean inRange = !ranged || (number >= leftRangeBounds && number <= rightRangeBounds);
+						boolean hasNoRemainder = isIntegerDivisor ? number % integerDivisor == 0 : number % divisor == 0;
+						evenOrOddCounters[i] += inRange && hasNoRemainder == noRemainder ? 1 : 0;
+					}
 				}
 			}
-			return evenOrOddCounter >= bounds[0];
+
 		};
 	}
 
-	private Predicate<List<Integer>> buildSameLastDigitFilter(String filterAsString) {
+	private IntComboPredicate buildSameLastDigitFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("sameLastDigit");
 		String[] rangeOptions = operationOptions[0].split("->");
-		Integer leftRangeBounds = rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[0]) : null;
-		Integer rightRangeBounds =  rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[1]) : null;
+		boolean ranged = rangeOptions.length > 1;
+		int leftRangeBounds = ranged ? Integer.parseInt(rangeOptions[0]) : 0;
+		int rightRangeBounds = ranged ? Integer.parseInt(rangeOptions[1]) : 0;
 		String[] options = operationOptions[1].split(":");
 		String[] boundsAsString = options[1].split(",");
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
+		int minBound = Integer.parseInt(boundsAsString[0]);
+		int maxBound = Integer.parseInt(boundsAsString[1]);
 		return combo -> {
-			int[] counters = new int[10];
-			for (Integer number : combo) {
-				if (rangeOptions.length > 1) {
+			//Un contatore di 6 bit per ognuna delle 10 cifre finali
+			long counters = 0;
+			int maxSameDigitCount = 0;
+			for (int number : combo) {
+				if (ranged) {
 					if (number > rightRangeBounds) {
 						break;
 					} else if (number < leftRangeBounds) {
 						continue;
 					}
 				}
-				counters[(number % 10)]++;
+				int shift = (number % 10) * 6;
+				counters += 1L << shift;
+				maxSameDigitCount = Math.max(maxSameDigitCount, (int)(counters >>> shift) & 0x3F);
 			}
-			int maxSameDigitCount = Arrays.stream(counters).summaryStatistics().getMax();
-			return maxSameDigitCount >= bounds[0] && maxSameDigitCount <= bounds[1];
+			return maxSameDigitCount >= minBound && maxSameDigitCount <= maxBound;
 		};
 	}
 
-	private Predicate<List<Integer>> buildConsecutiveLastDigitFilter(String filterAsString) {
+	private IntComboPredicate buildConsecutiveLastDigitFilter(String filterAsString) {
 		String[] operationOptions = filterAsString.replaceAll("\\s+","").split("consecutiveLastDigit");
 		String[] rangeOptions = operationOptions[0].split("->");
-		Integer leftRangeBounds = rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[0]) : null;
-		Integer rightRangeBounds =  rangeOptions.length > 1 ? Integer.parseInt(rangeOptions[1]) : null;
+		boolean ranged = rangeOptions.length > 1;
+		int leftRangeBounds = ranged ? Integer.parseInt(rangeOptions[0]) : 0;
+		int rightRangeBounds = ranged ? Integer.parseInt(rangeOptions[1]) : 0;
 		String[] options = operationOptions[1].split(":");
 		String[] boundsAsString = options[1].split(",");
-		int[] bounds = {
-			Integer.parseInt(boundsAsString[0]),
-			Integer.parseInt(boundsAsString[1])
-		};
+		int minBound = Integer.parseInt(boundsAsString[0]);
+		int maxBound = Integer.parseInt(boundsAsString[1]);
 		return combo -> {
-			Set<Integer> lastDigits = new TreeSet<>();
-			for (Integer number : combo) {
-				if (rangeOptions.length > 1) {
+			int lastDigits = 0;
+			for (int number : combo) {
+				if (ranged) {
 					if (number > rightRangeBounds) {
 						break;
 					} else if (number < leftRangeBounds) {
 						continue;
 					}
 				}
-				lastDigits.add(number % 10);
+				lastDigits |= 1 << (number % 10);
 			}
-			if (lastDigits.size() >= bounds[0] && lastDigits.size() <= bounds[1]) {
+			int lastDigitsCount = Integer.bitCount(lastDigits);
+			if (lastDigitsCount >= minBound && lastDigitsCount <= maxBound) {
 				return true;
 			}
 			int counter = 0;
 			int maxConsecutiveLastDigitCounter = 0;
-			Integer previousNumber = null;
-			for (int number : lastDigits) {
-				if (previousNumber != null && ((number != 0 && previousNumber == number -1) || (number == 0 && previousNumber == 9))) {
+			boolean hasPreviousNumber = false;
+			int previousNumber = 0;
+			for (int number = 0; number < 10; number++) {
+				if ((lastDigits & (1 << number)) == 0) {
+					continue;
+				}
+				if (hasPreviousNumber && ((number != 0 && previousNumber == number -1) || (number == 0 && previousNumber == 9))) {
 					if (counter == 0) {
 						counter++;
 					}
@@ -419,28 +921,47 @@ public class CombinationFilterFactory {
 				} else {
 					counter = 0;
 				}
+				hasPreviousNumber = true;
 				previousNumber = number;
 			}
-			return maxConsecutiveLastDigitCounter >= bounds[0] && maxConsecutiveLastDigitCounter <= bounds[1];
+			return maxConsecutiveLastDigitCounter >= minBound && maxConsecutiveLastDigitCounter <= maxBound;
 		};
 	}
 
 	private Predicate<List<Integer>> buildPredicate(
 		String filterAsString,
-		Function<String, Predicate<List<Integer>>> predicateBuilder,
+		Function<String, IntComboPredicate> predicateBuilder,
 		boolean logFalseResults
 	) {
-		Predicate<List<Integer>> predicate = predicateBuilder.apply(filterAsString);
+		IntComboPredicate predicate = predicateBuilder.apply(filterAsString);
 		if (logFalseResults) {
 			return combo -> {
-				boolean result = predicate.test(combo);
+				boolean result = predicate.test(toSortedArray(combo));
 				if (!result) {
 					LogUtils.INSTANCE.info("[" + filterAsString + "] returned false on combo:\t" + ComboHandler.toString(combo));
 				}
 				return result;
 			};
 		}
-		return predicate;
+		return combo ->
+			predicate.test(toSortedArray(combo));
+	}
+
+	private static class LeafBuilder {
+		final Predicate<String> matcher;
+		final Function<String, IntComboPredicate> predicateBuilder;
+		final ToDoubleFunction<String> costEstimator;
+
+		LeafBuilder(
+			Predicate<String> matcher,
+			Function<String, IntComboPredicate> predicateBuilder,
+			ToDoubleFunction<String> costEstimator
+		) {
+			this.matcher = matcher;
+			this.predicateBuilder = predicateBuilder;
+			this.costEstimator = costEstimator;
+		}
+
 	}
 
 }
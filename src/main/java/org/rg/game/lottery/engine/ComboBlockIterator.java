@@ -0,0 +1,72 @@
+package org.rg.game.lottery.engine;
+
+import java.util.Arrays;
+import java.util.List;
+
+//Scorre in ordine lessicografico (lo stesso di ComboHandler) le combinazioni comprese fra due rank riempiendo blocchi
+//memorizzati per colonne: columns[i][row] e' l'i-esimo numero (in ordine crescente) della combinazione row del blocco
+public class ComboBlockIterator {
+	private final int[] numbers;
+	private final boolean numbersAreSorted;
+	private final int[] indexes;
+	private final int[] combo;
+	private final int[][] columns;
+	private long rank;
+	private final long toRank;
+
+	public ComboBlockIterator(List<Integer> numbers, int combinationSize, long fromRank, long toRank, int blockSize) {
+		this.numbers = numbers.stream().mapToInt(Integer::intValue).toArray();
+		boolean numbersAreSorted = true;
+		for (int i = 1; i < this.numbers.length && numbersAreSorted; i++) {
+			numbersAreSorted = this.numbers[i - 1] <= this.numbers[i];
+		}
+		this.numbersAreSorted = numbersAreSorted;
+		this.indexes = ComboHandler.unrank(
+			fromRank, this.numbers.length, combinationSize, ComboHandler.binomials(this.numbers.length, combinationSize)
+		);
+		this.combo = new int[combinationSize];
+		this.columns = new int[combinationSize][blockSize];
+		this.rank = fromRank;
+		this.toRank = toRank;
+	}
+
+	public boolean hasNext() {
+		return rank < toRank;
+	}
+
+	//Riempie il blocco successivo e restituisce il numero di combinazioni caricate
+	public int next() {
+		int count = (int)Math.min(columns[0].length, toRank - rank);
+		for (int row = 0; row < count; row++) {
+			for (int i = 0; i < combo.length; i++) {
+				combo[i] = numbers[indexes[i]];
+			}
+			if (!numbersAreSorted) {
+				Arrays.sort(combo);
+			}
+			for (int i = 0; i < combo.length; i++) {
+				columns[i][row] = combo[i];
+			}
+			nextIndexes();
+		}
+		rank += count;
+		return count;
+	}
+
+	public int[][] getColumns() {
+		return columns;
+	}
+
+	private void nextIndexes() {
+		for (int i = indexes.length - 1; i >= 0; i--) {
+			if (indexes[i] < numbers.length - indexes.length + i) {
+				++indexes[i];
+				for (int j = i + 1; j < indexes.length; j++) {
+					indexes[j] = indexes[j - 1] + 1;
+				}
+				return;
+			}
+		}
+	}
+
+}
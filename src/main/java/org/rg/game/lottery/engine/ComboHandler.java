@@ -69,6 +69,34 @@ public class ComboHandler {
 		);
 	}
 
+	//binomials[n][k] e' il numero di combinazioni di k numeri su n (per k fino a combinationSize)
+	static long[][] binomials(int numbersCount, int combinationSize) {
+		long[][] binomials = new long[numbersCount + 1][combinationSize + 1];
+		for (int n = 0; n <= numbersCount; n++) {
+			binomials[n][0] = 1;
+			for (int k = 1; k <= Math.min(n, combinationSize); k++) {
+				binomials[n][k] = binomials[n - 1][k - 1] + (k <= n - 1 ? binomials[n - 1][k] : 0);
+			}
+		}
+		return binomials;
+	}
+
+	//Restituisce le posizioni nella lista dei numeri della combinazione con il rank indicato (nell'ordine lessicografico
+	//di questa classe il rank e' il contatore della combinazione meno uno)
+	static int[] unrank(long rank, int numbersCount, int combinationSize, long[][] binomials) {
+		int[] indexes = new int[combinationSize];
+		int index = 0;
+		for (int i = 0; i < combinationSize; i++) {
+			long combosStartingWithIndex;
+			while (rank >= (combosStartingWithIndex = binomials[numbersCount - 1 - index][combinationSize - 1 - i])) {
+				rank -= combosStartingWithIndex;
+				index++;
+			}
+			indexes[i] = index++;
+		}
+		return indexes;
+	}
+
 	public int getSizeAsInt() {
 		return getSize().intValue();
 	}
@@ -0,0 +1,300 @@
+package org.rg.game.lottery.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.burningwave.Throwables;
+
+//Insieme dei rank (indici in ordine lessicografico, come in ComboHandler) delle combinazioni accettate da un filtro.
+//I rank sono suddivisi in blocchi di 65536: ogni blocco e' memorizzato come array ordinato dei 16 bit bassi se
+//contiene al massimo 4096 elementi, altrimenti come bitmap di 1024 long
+public class ComboRankBitmap {
+	static final byte[] MAGIC = "SECR".getBytes(StandardCharsets.US_ASCII);
+	static final byte VERSION = 1;
+	private static final int CONTAINER_SIZE = 1 << 16;
+	private static final int MAX_ARRAY_CONTAINER_SIZE = 4096;
+	private static final byte ARRAY_CONTAINER = 0;
+	private static final byte BITMAP_CONTAINER = 1;
+
+	private final List<Integer> numbers;
+	private final int combinationSize;
+	private final long size;
+	private final String filter;
+	private final Container[] containers;
+	private final long[] cardinalities;
+
+	private ComboRankBitmap(List<Integer> numbers, int combinationSize, String filter, Container[] containers) {
+		this.numbers = Collections.unmodifiableList(new ArrayList<>(numbers));
+		this.combinationSize = combinationSize;
+		this.size = ComboHandler.sizeOfAsLong(numbers.size(), combinationSize);
+		this.filter = filter;
+		this.containers = containers;
+		this.cardinalities = new long[containers.length + 1];
+		for (int i = 0; i < containers.length; i++) {
+			cardinalities[i + 1] = cardinalities[i] + (containers[i] != null ? containers[i].cardinality : 0);
+		}
+	}
+
+	public static ComboRankBitmap build(String filter, List<Integer> numbers, int combinationSize) {
+		long size = ComboHandler.sizeOfAsLong(numbers.size(), combinationSize);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many combinations to be indexed: " + size);
+		}
+		IntComboPredicate compiledFilter = CombinationFilterFactory.INSTANCE.optimize(filter, numbers, combinationSize);
+		Container[] containers = new Container[(int)((size + CONTAINER_SIZE - 1) / CONTAINER_SIZE)];
+		//I blocchi sono indipendenti per cui vengono valutati in parallelo
+		IntStream.range(0, containers.length).parallel().forEach(key -> {
+			long startRank = (long)key * CONTAINER_SIZE;
+			ComboBlockIterator comboIterator = new ComboBlockIterator(
+				numbers, combinationSize, startRank, Math.min(startRank + CONTAINER_SIZE, size), CombinationFilterFactory.BLOCK_SIZE
+			);
+			long[] words = new long[CONTAINER_SIZE / Long.SIZE];
+			long[] blockResults = new long[CombinationFilterFactory.BLOCK_SIZE / Long.SIZE];
+			int cardinality = 0;
+			for (int wordIndex = 0; comboIterator.hasNext(); wordIndex += blockResults.length) {
+				int count = comboIterator.next();
+				CombinationFilterFactory.INSTANCE.test(compiledFilter, comboIterator.getColumns(), count, blockResults);
+				for (int i = 0; i < blockResults.length; i++) {
+					cardinality += Long.bitCount(words[wordIndex + i] = blockResults[i]);
+				}
+			}
+			containers[key] = Container.of(words, cardinality);
+		});
+		return new ComboRankBitmap(numbers, combinationSize, filter, containers);
+	}
+
+	public static ComboRankBitmap load(String absolutePath) {
+		try (FileChannel channel = FileChannel.open(new File(absolutePath).toPath(), StandardOpenOption.READ)) {
+			//Il file viene mappato in memoria e i blocchi vengono letti direttamente dalla mappatura
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+				throw new IOException(absolutePath + " is not a valid combo rank bitmap");
+			}
+			int combinationSize = buffer.get();
+			List<Integer> numbers = new ArrayList<>();
+			for (int i = buffer.getInt(); i > 0; i--) {
+				numbers.add(buffer.getInt());
+			}
+			byte[] filter = new byte[buffer.getInt()];
+			buffer.get(filter);
+			Container[] containers = new Container[buffer.getInt()];
+			for (int containerCount = buffer.getInt(); containerCount > 0; containerCount--) {
+				int key = buffer.getInt();
+				byte type = buffer.get();
+				int cardinality = buffer.getInt();
+				int containerByteSize = type == ARRAY_CONTAINER ? cardinality * Character.BYTES : CONTAINER_SIZE / Byte.SIZE;
+				ByteBuffer containerBuffer = buffer.slice();
+				containerBuffer.limit(containerByteSize);
+				buffer.position(buffer.position() + containerByteSize);
+				containers[key] = type == ARRAY_CONTAINER ?
+					new ArrayContainer(containerBuffer.asCharBuffer(), cardinality) :
+					new BitmapContainer(containerBuffer.asLongBuffer(), cardinality);
+			}
+			return new ComboRankBitmap(numbers, combinationSize, new String(filter, StandardCharsets.UTF_8), containers);
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	public void write(String absolutePath) {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(absolutePath, false)))) {
+			output.write(MAGIC);
+			output.writeByte(VERSION);
+			output.writeByte(combinationSize);
+			output.writeInt(numbers.size());
+			for (Integer number : numbers) {
+				output.writeInt(number);
+			}
+			byte[] filterAsBytes = filter.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(filterAsBytes.length);
+			output.write(filterAsBytes);
+			output.writeInt(containers.length);
+			output.writeInt((int)Arrays.stream(containers).filter(container -> container != null && container.cardinality > 0).count());
+			for (int key = 0; key < containers.length; key++) {
+				Container container = containers[key];
+				if (container != null && container.cardinality > 0) {
+					output.writeInt(key);
+					output.writeByte(container instanceof ArrayContainer ? ARRAY_CONTAINER : BITMAP_CONTAINER);
+					output.writeInt(container.cardinality);
+					container.write(output);
+				}
+			}
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	public boolean matches(List<Integer> numbers, int combinationSize) {
+		return this.combinationSize == combinationSize && this.numbers.equals(numbers);
+	}
+
+	public List<Integer> getNumbers() {
+		return numbers;
+	}
+
+	public int getCombinationSize() {
+		return combinationSize;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getCardinality() {
+		return cardinalities[containers.length];
+	}
+
+	public boolean contains(long rank) {
+		int key = (int)(rank >>> 16);
+		return rank >= 0 && key < containers.length && containers[key] != null && containers[key].contains((int)rank & 0xFFFF);
+	}
+
+	//Restituisce il rank dell'n-esima combinazione accettata dal filtro
+	public long select(long position) {
+		if (position < 0 || position >= getCardinality()) {
+			throw new IndexOutOfBoundsException("Position " + position + " is out of bounds (cardinality " + getCardinality() + ")");
+		}
+		int left = 0;
+		int right = containers.length - 1;
+		while (left < right) {
+			int middle = (left + right + 1) >>> 1;
+			if (cardinalities[middle] <= position) {
+				left = middle;
+			} else {
+				right = middle - 1;
+			}
+		}
+		return ((long)left << 16) | containers[left].select((int)(position - cardinalities[left]));
+	}
+
+	private static abstract class Container {
+		final int cardinality;
+
+		Container(int cardinality) {
+			this.cardinality = cardinality;
+		}
+
+		static Container of(long[] words, int cardinality) {
+			if (cardinality == 0) {
+				return null;
+			}
+			if (cardinality > MAX_ARRAY_CONTAINER_SIZE) {
+				return new BitmapContainer(LongBuffer.wrap(words), cardinality);
+			}
+			char[] values = new char[cardinality];
+			int valueIndex = 0;
+			for (int i = 0; i < words.length; i++) {
+				for (long word = words[i]; word != 0; word &= word - 1) {
+					values[valueIndex++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+				}
+			}
+			return new ArrayContainer(CharBuffer.wrap(values), cardinality);
+		}
+
+		abstract boolean contains(int low);
+
+		abstract int select(int position);
+
+		abstract void write(DataOutputStream output) throws IOException;
+
+	}
+
+	private static class ArrayContainer extends Container {
+		final CharBuffer values;
+
+		ArrayContainer(CharBuffer values, int cardinality) {
+			super(cardinality);
+			this.values = values;
+		}
+
+		@Override
+		boolean contains(int low) {
+			int left = 0;
+			int right = cardinality - 1;
+			while (left <= right) {
+				int middle = (left + right) >>> 1;
+				int value = values.get(middle);
+				if (value < low) {
+					left = middle + 1;
+				} else if (value > low) {
+					right = middle - 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		int select(int position) {
+			return values.get(position);
+		}
+
+		@Override
+		void write(DataOutputStream output) throws IOException {
+			for (int i = 0; i < cardinality; i++) {
+				output.writeChar(values.get(i));
+			}
+		}
+
+	}
+
+	private static class BitmapContainer extends Container {
+		final LongBuffer words;
+
+		BitmapContainer(LongBuffer words, int cardinality) {
+			super(cardinality);
+			this.words = words;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return (words.get(low >>> 6) & (1L << low)) != 0;
+		}
+
+		@Override
+		int select(int position) {
+			for (int i = 0; ; i++) {
+				long word = words.get(i);
+				int wordCardinality = Long.bitCount(word);
+				if (position < wordCardinality) {
+					for (; position > 0; position--) {
+						word &= word - 1;
+					}
+					return (i << 6) + Long.numberOfTrailingZeros(word);
+				}
+				position -= wordCardinality;
+			}
+		}
+
+		@Override
+		void write(DataOutputStream output) throws IOException {
+			for (int i = 0; i < CONTAINER_SIZE / Long.SIZE; i++) {
+				output.writeLong(words.get(i));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,387 @@
+package org.rg.game.lottery.engine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.burningwave.Throwables;
+import org.rg.game.core.LogUtils;
+
+//Le combinazioni vengono scritte nel file binario affiancato al report compresse con GZIP a blocchi: ogni blocco
+//contiene il numero di combinazioni seguito, per ogni combinazione, dal primo numero e dalle differenze tra numeri
+//consecutivi (varint da 7 bit, le differenze in zig-zag per non perdere le combinazioni non ordinate)
+public class CompressedPersistentStorage extends PersistentStorage {
+	static final byte[] MAGIC = "SECZ".getBytes(StandardCharsets.US_ASCII);
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = MAGIC.length + 2 + Integer.BYTES;
+	private static final int COMBOS_PER_BLOCK = 4096;
+	private static final int UNKNOWN_SIZE = -1;
+
+	String combosAbsolutePath;
+	int combinationCount;
+	OutputStream combosOutputStream;
+	ByteArrayOutputStream block;
+	int blockSize;
+
+	public CompressedPersistentStorage(
+		LocalDate extractionDate,
+		int combinationCount,
+		int numberOfCombos,
+		String group,
+		String suffix
+	) {
+		super(extractionDate, combinationCount, numberOfCombos, group, suffix);
+		this.combinationCount = combinationCount;
+		this.combosAbsolutePath = BinaryPersistentStorage.toCombosAbsolutePath(absolutePath);
+		this.block = new ByteArrayOutputStream();
+		try {
+			FileOutputStream fileOutputStream = new FileOutputStream(combosAbsolutePath, false);
+			fileOutputStream.write(buildHeader(combinationCount, UNKNOWN_SIZE));
+			combosOutputStream = new GZIPOutputStream(fileOutputStream, 65536, true);
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private CompressedPersistentStorage(String group, String fileName) {
+		super(group, fileName);
+		this.combosAbsolutePath = BinaryPersistentStorage.toCombosAbsolutePath(absolutePath);
+	}
+
+	static boolean isCompressed(String combosAbsolutePath) {
+		try (InputStream inputStream = new FileInputStream(combosAbsolutePath)) {
+			byte[] magic = new byte[MAGIC.length];
+			return inputStream.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+		} catch (IOException exc) {
+			return false;
+		}
+	}
+
+	public static CompressedPersistentStorage restore(String group, String fileName) {
+		CompressedPersistentStorage storage = new CompressedPersistentStorage(group, fileName) {
+			@Override
+			public boolean addCombo(List<Integer> selectedCombo) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public boolean addLine() {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public boolean addLine(String value) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+			@Override
+			public void addUnindexedCombo(List<Integer> selectedCombo) {
+				throw new UnsupportedOperationException(this + " is only readable");
+			}
+		};
+		try (RandomAccessFile combosFile = new RandomAccessFile(storage.combosAbsolutePath, "r")) {
+			byte[] header = new byte[HEADER_SIZE];
+			combosFile.readFully(header);
+			ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+			byte[] magic = new byte[MAGIC.length];
+			headerBuffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(storage.combosAbsolutePath + " is not a valid compressed combo file");
+			}
+			headerBuffer.get();
+			storage.combinationCount = headerBuffer.get();
+			storage.size = headerBuffer.getInt();
+		} catch (FileNotFoundException exc) {
+			return null;
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+		//Il numero di combinazioni viene scritto nell'intestazione solo alla chiusura: durante la scrittura
+		//vengono contate le combinazioni dei blocchi gia' scritti
+		if (storage.size == UNKNOWN_SIZE) {
+			storage.size = storage.countWrittenCombos();
+		}
+		return storage;
+	}
+
+	private static byte[] buildHeader(int combinationCount, int size) {
+		return ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).put(VERSION).put((byte)combinationCount).putInt(size).array();
+	}
+
+	private int countWrittenCombos() {
+		int count = 0;
+		try (InputStream inputStream = openBlocks()) {
+			int blockSize;
+			while ((blockSize = readVarInt(inputStream)) >= 0) {
+				for (int i = 0; i < blockSize * combinationCount; i++) {
+					if (readVarInt(inputStream) < 0) {
+						return count;
+					}
+				}
+				count += blockSize;
+			}
+		} catch (EOFException exc) {
+			//Blocco non ancora completato
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+		return count;
+	}
+
+	private InputStream openBlocks() throws IOException {
+		InputStream inputStream = new FileInputStream(combosAbsolutePath);
+		try {
+			long skipped = 0;
+			while (skipped < HEADER_SIZE) {
+				skipped += inputStream.skip(HEADER_SIZE - skipped);
+			}
+			return new BufferedInputStream(new GZIPInputStream(inputStream, 65536), 65536);
+		} catch (IOException exc) {
+			inputStream.close();
+			throw exc;
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream outputStream, int value) {
+		while ((value & ~0x7F) != 0) {
+			outputStream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		outputStream.write(value);
+	}
+
+	//Restituisce -1 se lo stream e' terminato prima dell'inizio del valore
+	private static int readVarInt(InputStream inputStream) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int readByte = inputStream.read();
+			if (readByte < 0) {
+				if (shift == 0) {
+					return -1;
+				}
+				throw new EOFException("Truncated value");
+			}
+			value |= (readByte & 0x7F) << shift;
+			if ((readByte & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	@Override
+	String getCacheKey() {
+		File combosFile = new File(combosAbsolutePath);
+		return combosAbsolutePath + ";" + combosFile.length() + ";" + combosFile.lastModified();
+	}
+
+	public String getCombosAbsolutePath() {
+		return combosAbsolutePath;
+	}
+
+	@Override
+	void writeCombo(List<Integer> combo) {
+		int previousNumber = 0;
+		for (int i = 0; i < combo.size(); i++) {
+			int number = combo.get(i);
+			if (i == 0) {
+				writeVarInt(block, number);
+			} else {
+				int gap = number - previousNumber;
+				writeVarInt(block, (gap << 1) ^ (gap >> 31));
+			}
+			previousNumber = number;
+			Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
+			occurrences.put(number, counter);
+		}
+		++size;
+		if (++blockSize >= COMBOS_PER_BLOCK) {
+			writeBlock();
+		}
+		flushIfNeeded();
+	}
+
+	private void writeBlock() {
+		if (blockSize > 0) {
+			try {
+				ByteArrayOutputStream blockHeader = new ByteArrayOutputStream(5);
+				writeVarInt(blockHeader, blockSize);
+				blockHeader.writeTo(combosOutputStream);
+				block.writeTo(combosOutputStream);
+				block.reset();
+				blockSize = 0;
+			} catch (IOException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (combosOutputStream != null && isClosed == null) {
+			writeBlock();
+			try {
+				combosOutputStream.flush();
+			} catch (IOException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+		super.flush();
+	}
+
+	@Override
+	public List<Integer> getCombo(int idx) {
+		if (idx < 0 || idx >= size) {
+			return null;
+		}
+		//Il formato compresso non consente l'accesso diretto: la combinazione viene raggiunta decomprimendo
+		Iterator<List<Integer>> comboIterator = iterator();
+		for (int i = 0; i < idx; i++) {
+			comboIterator.next();
+		}
+		List<Integer> combo = comboIterator.next();
+		while (comboIterator.hasNext()) {
+			comboIterator.next();
+		}
+		return combo;
+	}
+
+	@Override
+	public void forEach(IntComboConsumer action) {
+		flush();
+		int size = this.size;
+		try (InputStream inputStream = openBlocks()) {
+			int[] combo = new int[combinationCount];
+			for (int readCombos = 0; readCombos < size; ) {
+				int blockSize = readVarInt(inputStream);
+				if (blockSize < 0) {
+					throw new EOFException("Unexpected end of file " + combosAbsolutePath);
+				}
+				for (int j = 0; j < blockSize && readCombos < size; j++, readCombos++) {
+					int number = combo[0] = readVarInt(inputStream);
+					for (int i = 1; i < combinationCount; i++) {
+						int zigZagGap = readVarInt(inputStream);
+						combo[i] = number += (zigZagGap >>> 1) ^ -(zigZagGap & 1);
+					}
+					action.accept(combo);
+				}
+			}
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	@Override
+	public Iterator<List<Integer>> iterator() {
+		flush();
+		try {
+			InputStream inputStream = openBlocks();
+			int size = this.size;
+			return new Iterator<List<Integer>>() {
+				int readCombos = 0;
+				int remainingInBlock = 0;
+
+				@Override
+				public boolean hasNext() {
+					if (readCombos >= size) {
+						close();
+						return false;
+					}
+					return true;
+				}
+
+				@Override
+				public List<Integer> next() {
+					if (readCombos >= size) {
+						throw new NoSuchElementException("No combo available");
+					}
+					try {
+						if (remainingInBlock == 0 && (remainingInBlock = readVarInt(inputStream)) < 0) {
+							throw new EOFException("Unexpected end of file " + combosAbsolutePath);
+						}
+						List<Integer> combo = new ArrayList<>(combinationCount);
+						int number = readVarInt(inputStream);
+						combo.add(number);
+						for (int i = 1; i < combinationCount; i++) {
+							int zigZagGap = readVarInt(inputStream);
+							combo.add(number += (zigZagGap >>> 1) ^ -(zigZagGap & 1));
+						}
+						remainingInBlock--;
+						if (++readCombos >= size) {
+							close();
+						}
+						return combo;
+					} catch (IOException exc) {
+						close();
+						return Throwables.INSTANCE.throwException(exc);
+					}
+				}
+
+				private void close() {
+					try {
+						inputStream.close();
+					} catch (IOException exc) {
+						Throwables.INSTANCE.throwException(exc);
+					}
+				}
+
+			};
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	@Override
+	public void printAll() {
+		Iterator<List<Integer>> comboIterator = iterator();
+		while (comboIterator.hasNext()) {
+			LogUtils.INSTANCE.info(ComboHandler.toString(comboIterator.next()));
+		}
+		super.printAll();
+	}
+
+	@Override
+	public void close() {
+		//Il file compresso viene completato prima che la chiusura del report lo renda disponibile agli altri processi
+		if (combosOutputStream != null && isClosed == null && !deleted) {
+			try {
+				writeBlock();
+				combosOutputStream.close();
+				try (RandomAccessFile combosFile = new RandomAccessFile(combosAbsolutePath, "rw")) {
+					combosFile.write(buildHeader(combinationCount, size));
+				}
+			} catch (IOException exc) {
+				LogUtils.INSTANCE.error(exc);
+			}
+		}
+		super.close();
+	}
+
+	@Override
+	public void delete() {
+		if (combosOutputStream != null) {
+			try {
+				combosOutputStream.close();
+			} catch (IOException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+		super.delete();
+		new File(combosAbsolutePath).delete();
+	}
+
+}
@@ -0,0 +1,309 @@
+package org.rg.game.lottery.engine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+//Filtro compilato: la combinazione passata deve essere ordinata in modo crescente e non deve essere modificata
+@FunctionalInterface
+public interface IntComboPredicate {
+
+	boolean test(int[] combo);
+
+	//Valutazione a blocchi: columns[i][row] e' l'i-esimo numero della combinazione row e in results sono impostati
+	//i bit delle combinazioni da valutare (quelli oltre count devono essere a zero). Al termine in results restano
+	//impostati solo i bit delle combinazioni accettate
+	default void test(int[][] columns, int count, long[] results) {
+		int[] combo = new int[columns.length];
+		for (int wordIndex = 0; wordIndex < Node.wordsCount(count); wordIndex++) {
+			for (long word = results[wordIndex]; word != 0; word &= word - 1) {
+				int row = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+				for (int i = 0; i < combo.length; i++) {
+					combo[i] = columns[i][row];
+				}
+				if (!test(combo)) {
+					results[wordIndex] &= ~(1L << row);
+				}
+			}
+		}
+	}
+
+	//Costo stimato (operazioni elementari per combinazione) e percentuale di combinazioni accettate misurata
+	//su un campione: vengono valorizzati dall'ottimizzatore
+	public static abstract class Node implements IntComboPredicate {
+		double cost;
+		double passRate = Double.NaN;
+
+		Node(double cost) {
+			this.cost = cost;
+		}
+
+		public double getCost() {
+			return cost;
+		}
+
+		public double getPassRate() {
+			return passRate;
+		}
+
+		static int wordsCount(int count) {
+			return (count + Long.SIZE - 1) >>> 6;
+		}
+
+		static int bitCount(long[] results, int wordsCount) {
+			int bitCount = 0;
+			for (int i = 0; i < wordsCount; i++) {
+				bitCount += Long.bitCount(results[i]);
+			}
+			return bitCount;
+		}
+
+		static boolean isEmpty(long[] results, int wordsCount) {
+			for (int i = 0; i < wordsCount; i++) {
+				if (results[i] != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	//Filtro che calcola un valore intero per ogni combinazione (una somma, un conteggio) e lo confronta con quelli
+	//ammessi: sui blocchi il valore viene calcolato colonna per colonna con cicli semplici che il JIT puo' vettorizzare
+	public static abstract class Aggregate implements IntComboPredicate {
+		final IntPredicate acceptedValues;
+
+		Aggregate(IntPredicate acceptedValues) {
+			this.acceptedValues = acceptedValues;
+		}
+
+		abstract int aggregate(int[] combo);
+
+		abstract void aggregate(int[][] columns, int count, int[] values);
+
+		@Override
+		public boolean test(int[] combo) {
+			return acceptedValues.test(aggregate(combo));
+		}
+
+		@Override
+		public void test(int[][] columns, int count, long[] results) {
+			int[] values = new int[count];
+			aggregate(columns, count, values);
+			for (int wordIndex = 0; wordIndex < Node.wordsCount(count); wordIndex++) {
+				for (long word = results[wordIndex]; word != 0; word &= word - 1) {
+					int row = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+					if (!acceptedValues.test(values[row])) {
+						results[wordIndex] &= ~(1L << row);
+					}
+				}
+			}
+		}
+
+	}
+
+	public static class Leaf extends Node {
+		final String expression;
+		final IntComboPredicate predicate;
+
+		Leaf(String expression, IntComboPredicate predicate, double cost) {
+			super(cost);
+			this.expression = expression;
+			this.predicate = predicate;
+		}
+
+		@Override
+		public boolean test(int[] combo) {
+			return predicate.test(combo);
+		}
+
+		@Override
+		public void test(int[][] columns, int count, long[] results) {
+			predicate.test(columns, count, results);
+		}
+
+		public String getExpression() {
+			return expression;
+		}
+
+		@Override
+		public String toString() {
+			return expression;
+		}
+
+	}
+
+	//Nodo dell'albero di profilazione: registra quante combinazioni ha valutato, quante ne ha accettate e il tempo
+	//impiegato (figli compresi). I contatori sono a celle separate per non contendersi la stessa variabile nella
+	//valutazione parallela
+	public static class Profiled extends Node {
+		final Node node;
+		final LongAdder evaluations;
+		final LongAdder passes;
+		final LongAdder elapsedNanos;
+
+		Profiled(Node node) {
+			super(node.cost);
+			this.passRate = node.passRate;
+			this.node = node;
+			this.evaluations = new LongAdder();
+			this.passes = new LongAdder();
+			this.elapsedNanos = new LongAdder();
+		}
+
+		@Override
+		public boolean test(int[] combo) {
+			long startTime = System.nanoTime();
+			boolean result = node.test(combo);
+			elapsedNanos.add(System.nanoTime() - startTime);
+			evaluations.increment();
+			if (result) {
+				passes.increment();
+			}
+			return result;
+		}
+
+		@Override
+		public void test(int[][] columns, int count, long[] results) {
+			int wordsCount = wordsCount(count);
+			evaluations.add(bitCount(results, wordsCount));
+			long startTime = System.nanoTime();
+			node.test(columns, count, results);
+			elapsedNanos.add(System.nanoTime() - startTime);
+			passes.add(bitCount(results, wordsCount));
+		}
+
+		public Node getNode() {
+			return node;
+		}
+
+		public long getEvaluations() {
+			return evaluations.sum();
+		}
+
+		public long getPasses() {
+			return passes.sum();
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos.sum();
+		}
+
+		@Override
+		public String toString() {
+			return node.toString();
+		}
+
+	}
+
+	public static abstract class Composite extends Node {
+		final Node[] children;
+
+		Composite(List<Node> children) {
+			super(0);
+			this.children = children.toArray(new Node[children.size()]);
+			for (Node child : this.children) {
+				cost += child.cost;
+			}
+		}
+
+		public Node[] getChildren() {
+			return children.clone();
+		}
+
+		abstract String getOperator();
+
+		@Override
+		public String toString() {
+			StringBuilder description = new StringBuilder("(");
+			for (int i = 0; i < children.length; i++) {
+				if (i > 0) {
+					description.append(" ").append(getOperator()).append(" ");
+				}
+				description.append(children[i]);
+			}
+			return description.append(")").toString();
+		}
+
+	}
+
+	public static class And extends Composite {
+
+		And(List<Node> children) {
+			super(children);
+		}
+
+		@Override
+		public boolean test(int[] combo) {
+			for (IntComboPredicate child : children) {
+				if (!child.test(combo)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void test(int[][] columns, int count, long[] results) {
+			int wordsCount = wordsCount(count);
+			for (IntComboPredicate child : children) {
+				child.test(columns, count, results);
+				if (isEmpty(results, wordsCount)) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		String getOperator() {
+			return "&";
+		}
+
+	}
+
+	public static class Or extends Composite {
+
+		Or(List<Node> children) {
+			super(children);
+		}
+
+		@Override
+		public boolean test(int[] combo) {
+			for (IntComboPredicate child : children) {
+				if (child.test(combo)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		//Ogni figlio valuta solo le combinazioni non ancora accettate dai precedenti
+		@Override
+		public void test(int[][] columns, int count, long[] results) {
+			int wordsCount = wordsCount(count);
+			long[] remaining = Arrays.copyOf(results, wordsCount);
+			long[] childResults = new long[wordsCount];
+			Arrays.fill(results, 0, wordsCount, 0);
+			for (IntComboPredicate child : children) {
+				System.arraycopy(remaining, 0, childResults, 0, wordsCount);
+				child.test(columns, count, childResults);
+				for (int i = 0; i < wordsCount; i++) {
+					results[i] |= childResults[i];
+					remaining[i] &= ~childResults[i];
+				}
+				if (isEmpty(remaining, wordsCount)) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		String getOperator() {
+			return "|";
+		}
+
+	}
+
+}
@@ -0,0 +1,265 @@
+package org.rg.game.lottery.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.burningwave.Throwables;
+
+//Genera per ogni filtro compilato una classe il cui metodo test valuta l'intera espressione in un'unica sequenza di
+//salti condizionati: ogni foglia viene invocata da un punto di chiamata distinto che, vedendo sempre la stessa
+//implementazione, puo' essere reso inline dal JIT (cosa che non avviene nel ciclo dei nodi AND e OR dove lo stesso
+//punto di chiamata vede tutte le implementazioni delle foglie).
+//Ogni classe viene definita in un proprio class loader, figlio di quello di IntComboPredicate, in modo che possa essere
+//scaricata insieme ad esso quando il filtro non e' piu' referenziato (ad esempio dopo l'espulsione dalla cache). Il
+//class file e' di versione 49 in modo che non serva la StackMapTable.
+//La generazione non e' disponibile (vedi getUnsupportedReason) in un'immagine nativa, dove non si possono definire
+//classi a runtime, e quando l'applicazione e' eseguita dal module path: la classe generata sta nel modulo senza nome
+//del proprio class loader e non puo' implementare IntComboPredicate perche' il suo package non e' esportato
+class IntComboPredicateGenerator {
+	private static final String CLASS_NAME_PREFIX = IntComboPredicateGenerator.class.getName().replace('.', '/') + "$Filter";
+	private static final String PREDICATE_CLASS_NAME = IntComboPredicate.class.getName().replace('.', '/');
+	private static final AtomicInteger CLASS_COUNTER = new AtomicInteger(0);
+	private static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+
+	private static final int LEAVES_FIELD_REF = 10;
+	private static final int TEST_METHOD_REF = 14;
+	private static final int OBJECT_CONSTRUCTOR_REF = 18;
+
+	private final List<IntComboPredicate> leaves;
+	private byte[] code;
+	private int codeSize;
+	private final List<Label> labels;
+
+	private IntComboPredicateGenerator() {
+		this.leaves = new ArrayList<>();
+		this.code = new byte[256];
+		this.labels = new ArrayList<>();
+	}
+
+	//Restituisce il motivo per cui le classi non possono essere generate o null se la generazione e' disponibile
+	static String getUnsupportedReason() {
+		if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+			return "classes cannot be defined at runtime in a native image";
+		}
+		Module module = IntComboPredicate.class.getModule();
+		if (!module.isExported(IntComboPredicate.class.getPackageName())) {
+			return "the package " + IntComboPredicate.class.getPackageName() + " is not exported by the module " + module.getName();
+		}
+		return null;
+	}
+
+	//Restituisce il nodo ricevuto se l'espressione e' troppo grande per il metodo generato
+	static IntComboPredicate generate(IntComboPredicate.Node predicate) {
+		IntComboPredicateGenerator generator = new IntComboPredicateGenerator();
+		Label falseLabel = generator.newLabel();
+		generator.jumpIfFalse(predicate, falseLabel);
+		generator.emit(0x04, 0xAC);
+		generator.place(falseLabel);
+		generator.emit(0x03, 0xAC);
+		if (generator.codeSize > MAX_CODE_SIZE || generator.leaves.size() > Short.MAX_VALUE) {
+			return predicate;
+		}
+		generator.resolveLabels();
+		String className = CLASS_NAME_PREFIX + CLASS_COUNTER.incrementAndGet();
+		try {
+			Class<?> predicateClass = new FilterClassLoader().define(className.replace('/', '.'), generator.toClassFile(className));
+			return (IntComboPredicate)predicateClass.getConstructor(IntComboPredicate[].class).newInstance(
+				(Object)generator.leaves.toArray(new IntComboPredicate[generator.leaves.size()])
+			);
+		} catch (ReflectiveOperationException | IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private void jumpIfFalse(IntComboPredicate.Node predicate, Label target) {
+		if (predicate instanceof IntComboPredicate.And) {
+			for (IntComboPredicate.Node child : ((IntComboPredicate.Composite)predicate).children) {
+				jumpIfFalse(child, target);
+			}
+		} else if (predicate instanceof IntComboPredicate.Or) {
+			IntComboPredicate.Node[] children = ((IntComboPredicate.Composite)predicate).children;
+			Label trueLabel = newLabel();
+			for (int i = 0; i < children.length - 1; i++) {
+				jumpIfTrue(children[i], trueLabel);
+			}
+			jumpIfFalse(children[children.length - 1], target);
+			place(trueLabel);
+		} else {
+			invokeLeaf((IntComboPredicate.Leaf)predicate);
+			jump(0x99, target);
+		}
+	}
+
+	private void jumpIfTrue(IntComboPredicate.Node predicate, Label target) {
+		if (predicate instanceof IntComboPredicate.Or) {
+			for (IntComboPredicate.Node child : ((IntComboPredicate.Composite)predicate).children) {
+				jumpIfTrue(child, target);
+			}
+		} else if (predicate instanceof IntComboPredicate.And) {
+			IntComboPredicate.Node[] children = ((IntComboPredicate.Composite)predicate).children;
+			Label falseLabel = newLabel();
+			for (int i = 0; i < children.length - 1; i++) {
+				jumpIfFalse(children[i], falseLabel);
+			}
+			jumpIfTrue(children[children.length - 1], target);
+			place(falseLabel);
+		} else {
+			invokeLeaf((IntComboPredicate.Leaf)predicate);
+			jump(0x9A, target);
+		}
+	}
+
+	//leaves[index].test(combo): viene invocato direttamente il predicato della foglia e non il suo wrapper
+	private void invokeLeaf(IntComboPredicate.Leaf leaf) {
+		int index = leaves.size();
+		leaves.add(leaf.predicate);
+		emit(0x2A, 0xB4, LEAVES_FIELD_REF >> 8, LEAVES_FIELD_REF & 0xFF);
+		if (index <= 5) {
+			emit(0x03 + index);
+		} else if (index <= Byte.MAX_VALUE) {
+			emit(0x10, index);
+		} else {
+			emit(0x11, index >> 8, index & 0xFF);
+		}
+		emit(0x32, 0x2B, 0xB9, TEST_METHOD_REF >> 8, TEST_METHOD_REF & 0xFF, 2, 0);
+	}
+
+	private Label newLabel() {
+		Label label = new Label();
+		labels.add(label);
+		return label;
+	}
+
+	private void place(Label label) {
+		label.position = codeSize;
+	}
+
+	private void jump(int opcode, Label target) {
+		target.jumps.add(codeSize);
+		emit(opcode, 0, 0);
+	}
+
+	private void resolveLabels() {
+		for (Label label : labels) {
+			for (int jumpPosition : label.jumps) {
+				int offset = label.position - jumpPosition;
+				code[jumpPosition + 1] = (byte)(offset >> 8);
+				code[jumpPosition + 2] = (byte)offset;
+			}
+		}
+	}
+
+	private void emit(int... bytes) {
+		if (codeSize + bytes.length > code.length) {
+			code = Arrays.copyOf(code, Math.max(code.length * 2, codeSize + bytes.length));
+		}
+		for (int value : bytes) {
+			code[codeSize++] = (byte)value;
+		}
+	}
+
+	private byte[] toClassFile(String className) throws IOException {
+		ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(classFile);
+		output.writeInt(0xCAFEBABE);
+		output.writeShort(0);
+		output.writeShort(49);
+		//Constant pool: gli indici sono quelli usati dalle costanti *_REF
+		output.writeShort(21);
+		writeUtf8(output, className);                                   //1
+		writeReference(output, 7, 1);                                   //2 this
+		writeUtf8(output, "java/lang/Object");                          //3
+		writeReference(output, 7, 3);                                   //4 super
+		writeUtf8(output, PREDICATE_CLASS_NAME);                        //5
+		writeReference(output, 7, 5);                                   //6 IntComboPredicate
+		writeUtf8(output, "leaves");                                    //7
+		writeUtf8(output, "[L" + PREDICATE_CLASS_NAME + ";");           //8
+		writeReference(output, 12, 7, 8);                               //9
+		writeReference(output, 9, 2, 9);                                //10 this.leaves
+		writeUtf8(output, "test");                                      //11
+		writeUtf8(output, "([I)Z");                                     //12
+		writeReference(output, 12, 11, 12);                             //13
+		writeReference(output, 11, 6, 13);                              //14 IntComboPredicate.test
+		writeUtf8(output, "<init>");                                    //15
+		writeUtf8(output, "()V");                                       //16
+		writeReference(output, 12, 15, 16);                             //17
+		writeReference(output, 10, 4, 17);                              //18 Object.<init>
+		writeUtf8(output, "([L" + PREDICATE_CLASS_NAME + ";)V");        //19
+		writeUtf8(output, "Code");                                      //20
+		//public final class ... extends Object implements IntComboPredicate
+		output.writeShort(0x0031);
+		output.writeShort(2);
+		output.writeShort(4);
+		output.writeShort(1);
+		output.writeShort(6);
+		//private final IntComboPredicate[] leaves
+		output.writeShort(1);
+		output.writeShort(0x0012);
+		output.writeShort(7);
+		output.writeShort(8);
+		output.writeShort(0);
+		output.writeShort(2);
+		//public <init>(IntComboPredicate[] leaves) { super(); this.leaves = leaves; }
+		writeMethod(output, 15, 19, 2, new byte[] {
+			0x2A, (byte)0xB7, OBJECT_CONSTRUCTOR_REF >> 8, OBJECT_CONSTRUCTOR_REF & 0xFF,
+			0x2A, 0x2B, (byte)0xB5, LEAVES_FIELD_REF >> 8, LEAVES_FIELD_REF & 0xFF,
+			(byte)0xB1
+		});
+		//public boolean test(int[] combo)
+		writeMethod(output, 11, 12, 3, Arrays.copyOf(code, codeSize));
+		output.writeShort(0);
+		output.flush();
+		return classFile.toByteArray();
+	}
+
+	private void writeUtf8(DataOutputStream output, String value) throws IOException {
+		output.writeByte(1);
+		output.writeUTF(value);
+	}
+
+	private void writeReference(DataOutputStream output, int tag, int... indexes) throws IOException {
+		output.writeByte(tag);
+		for (int index : indexes) {
+			output.writeShort(index);
+		}
+	}
+
+	private void writeMethod(DataOutputStream output, int name, int descriptor, int maxStack, byte[] code) throws IOException {
+		output.writeShort(0x0001);
+		output.writeShort(name);
+		output.writeShort(descriptor);
+		output.writeShort(1);
+		output.writeShort(20);
+		output.writeInt(12 + code.length);
+		output.writeShort(maxStack);
+		output.writeShort(2);
+		output.writeInt(code.length);
+		output.write(code);
+		output.writeShort(0);
+		output.writeShort(0);
+	}
+
+	private static class Label {
+		int position;
+		final List<Integer> jumps = new ArrayList<>();
+	}
+
+	//La classe generata usa solo tipi pubblici per cui non ha bisogno di stare nel class loader di questa classe
+	private static class FilterClassLoader extends ClassLoader {
+
+		private FilterClassLoader() {
+			super(IntComboPredicate.class.getClassLoader());
+		}
+
+		private Class<?> define(String className, byte[] classFile) {
+			return defineClass(className, classFile, 0, classFile.length);
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.rg.game.lottery.engine;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -30,12 +31,13 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import org.burningwave.Throwables;
 import org.rg.game.core.CollectionUtils;
+import org.rg.game.core.ConcurrentLRUCache;
 import org.rg.game.core.LogUtils;
 import org.rg.game.core.NetworkUtils;
 import org.rg.game.core.TimeUtils;
@@ -43,9 +45,17 @@ import org.rg.game.core.TimeUtils;
 public abstract class LotteryMatrixGeneratorAbstEngine {
 
 	private static final NumberProcessor numberProcessor;
+	private static final ConcurrentLRUCache<String, String> preProcessedFilters;
 
 	static {
 		numberProcessor = new NumberProcessor();
+		//Chiavi e valori sono espressioni dei filtri per cui il peso di una voce e' la somma delle loro lunghezze
+		preProcessedFilters = new ConcurrentLRUCache<>(
+			Integer.parseInt(CollectionUtils.INSTANCE.retrieveValue("combination.filter.cache.max-size", "1000")),
+			Long.parseLong(CollectionUtils.INSTANCE.retrieveValue("combination.filter.cache.max-weight", "16000000")),
+			(key, value) -> key.length() + (value != null ? value.length() : 0),
+			value -> true
+		);
 	}
 
 	protected int engineIndex;
@@ -86,17 +96,15 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 			config.setProperty("combination.selector", "sequence");
 			config.setProperty("combination.count", combinationCountConfigValue = "-1");
 		}
-		processingContext.comboIndexSelectorType = CollectionUtils.INSTANCE.retrieveValue(config,"combination.selector", "random");
+		processingContext.comboIndexSelectorType = CollectionUtils.INSTANCE.retrieveValue(config,"combination.selector", "random").trim();
+		if (!Arrays.asList("random", "sequence", "sumRandom", "sumSequence").contains(processingContext.comboIndexSelectorType)) {
+			throw new IllegalArgumentException("Unsupported combination selector: " + processingContext.comboIndexSelectorType);
+		}
 		String combinationFilterRaw = CollectionUtils.INSTANCE.retrieveValue(config,"combination.filter");
 		String numbersProcessorConfigPrefix = Optional.ofNullable(
 			CollectionUtils.INSTANCE.retrieveValue(config,"numbers-processor.config.prefix")
 		).map(value -> value + ".").orElseGet(() -> "");
 		processingContext.basicDataSupplier = extractionDate -> {
-			if (processingContext.combinationFilter == null) {
-				processingContext.combinationFilter = CombinationFilterFactory.INSTANCE.parse(
-					preProcess(combinationFilterRaw, extractionDate)
-				);
-			}
 			Map<String, Object> data = adjustSeed(extractionDate);
 			NumberProcessor.Context<?> numberProcessorContext = new NumberProcessor.Context<>(
 				getNumberGeneratorFactory(extractionDate), engineIndex, getAllPreviousEngineAndConfigurations()
@@ -122,6 +130,13 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 				)
 			);
 			data.put("numbersToBePlayed", numbersToBePlayed);
+			if (processingContext.combinationFilter == null) {
+				processingContext.combinationFilter = CombinationFilterFactory.INSTANCE.parse(
+					preProcess(combinationFilterRaw, extractionDate),
+					numbersToBePlayed,
+					processingContext.combinationComponents
+				);
+			}
 			return data;
 		};
 		if (cacheEngineAndConfiguration) {
@@ -156,6 +171,10 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 			CollectionUtils.INSTANCE.retrieveValue(config,"group").replace("${localhost.name}", NetworkUtils.INSTANCE.thisHostName()):
 			null;
 		processingContext.combinationFilterRaw = combinationFilterRaw;
+		String combinationFilterIndexFileName = CollectionUtils.INSTANCE.retrieveValue(config, "combination.filter.index");
+		processingContext.combinationFilterIndex = combinationFilterIndexFileName != null ?
+			ComboRankBitmap.load(PersistentStorage.buildWorkingPath() + File.separator + combinationFilterIndexFileName.trim()) :
+			null;
 		processingContext.testFilter = CollectionUtils.INSTANCE.retrieveBoolean(config, "combination.filter.test", true);
 		processingContext.testFilterFineInfo = CollectionUtils.INSTANCE.retrieveBoolean(config, "combination.filter.test.fine-info", true);
 		processingContext.combinationComponents = Integer.valueOf(CollectionUtils.INSTANCE.retrieveValue(config,"combination.components"));
@@ -181,7 +200,7 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 		processingContext.notEquilibrateCombinationAtLeastOneNumberAmongThoseChosen = CollectionUtils.INSTANCE.retrieveBoolean(
 			config,
 			"combination.not-equilibrate.at-least-one-number-among-those-chosen",
-			!"sequence".equals(processingContext.comboIndexSelectorType)
+			!processingContext.comboIndexSelectorType.equals("sequence") && !processingContext.comboIndexSelectorType.equals("sumSequence")
 		);
 		processingContext.overwriteIfExists = Integer.parseInt(
 			CollectionUtils.INSTANCE.retrieveValue(config,
@@ -298,8 +317,24 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 
 	protected abstract String getDefaultNumberRange();
 
+	//Il risultato dipende dalle statistiche solo se l'espressione le utilizza: in questo caso la chiave della cache
+	//comprende anche quella delle statistiche usate per la data di estrazione
 	public String preProcess(String filterAsString, LocalDate extractionDate) {
-		return getProcessingContext().combinationFilterPreProcessor.preProcess(filterAsString, extractionDate);
+		if (filterAsString == null) {
+			return getProcessingContext().combinationFilterPreProcessor.preProcess(filterAsString, extractionDate);
+		}
+		return preProcessedFilters.getOrBuild(
+			getClass().getName() + "|" + getStatsKey(filterAsString, extractionDate) + "|" + filterAsString,
+			() -> getProcessingContext().combinationFilterPreProcessor.preProcess(filterAsString, extractionDate)
+		);
+	}
+
+	protected String getStatsKey(String filterAsString, LocalDate extractionDate) {
+		return "";
+	}
+
+	public static String getPreProcessedFiltersCacheStatistics() {
+		return preProcessedFilters.getStatistics();
 	}
 
 	protected void setupCombinationFilterPreProcessor() {
@@ -365,7 +400,16 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 		if ("memory".equalsIgnoreCase(getProcessingContext().storageType)) {
 			return new MemoryStorage(extractionDate, combinationCount, numberOfCombos, group, suffix);
 		}
-		return new PersistentStorage(extractionDate, combinationCount, numberOfCombos, group, suffix);
+		PersistentStorage storage = PersistentStorage.Format.of(
+			CollectionUtils.INSTANCE.retrieveValue("persistent-storage.format", "text")
+		).create(extractionDate, combinationCount, numberOfCombos, group, suffix);
+		int writeBehindBufferSize = Integer.parseInt(
+			CollectionUtils.INSTANCE.retrieveValue("persistent-storage.write-behind.buffer-size", "0")
+		);
+		if (writeBehindBufferSize > 0) {
+			return new WriteBehindStorage(storage, writeBehindBufferSize);
+		}
+		return storage;
 	}
 
 	public Storage generate(
@@ -385,6 +429,42 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 			);
 		}
 		ComboHandler comboHandler = new ComboHandler(numbers, processingContext.combinationComponents);
+		//L'indice del filtro e' utilizzabile solo se e' stato calcolato sugli stessi numeri
+		processingContext.activeCombinationFilterIndex = null;
+		if (processingContext.combinationFilterIndex != null) {
+			if (processingContext.combinationFilterIndex.matches(numbers, processingContext.combinationComponents)) {
+				processingContext.activeCombinationFilterIndex = processingContext.combinationFilterIndex;
+			} else {
+				LogUtils.INSTANCE.warn("The combination filter index was not built on the numbers to be played and it will be ignored");
+			}
+		}
+		//Con i selettori 'sumRandom' e 'sumSequence' gli indici vengono scelti solo tra quelli delle combinazioni la cui
+		//somma e' ammessa dal filtro
+		processingContext.activeSumConstrainedComboSampler = null;
+		if ((processingContext.comboIndexSelectorType.equals("sumRandom") || processingContext.comboIndexSelectorType.equals("sumSequence")) &&
+			processingContext.activeCombinationFilterIndex == null
+		) {
+			IntPredicate allowedSums = processingContext.combinationFilterRaw != null ?
+				CombinationFilterFactory.INSTANCE.retrieveAllowedSums(
+					CombinationFilterFactory.INSTANCE.compile(preProcess(processingContext.combinationFilterRaw, extractionDate))
+				) :
+				null;
+			if (allowedSums != null) {
+				processingContext.activeSumConstrainedComboSampler = SumConstrainedComboSampler.create(
+					numbers, processingContext.combinationComponents, allowedSums
+				);
+				if (processingContext.activeSumConstrainedComboSampler.getSize() > 0) {
+					LogUtils.INSTANCE.info(
+						processingContext.integerFormat.format(processingContext.activeSumConstrainedComboSampler.getSize()) +
+						" combos have a sum allowed by the combination filter"
+					);
+				} else {
+					LogUtils.INSTANCE.warn("No combo has a sum allowed by the combination filter: no combo will be selected");
+				}
+			} else {
+				LogUtils.INSTANCE.warn("The combination filter does not constrain the sum of the combos: all combos will be selectable");
+			}
+		}
 		if (processingContext.numberOfCombosRequested != null && processingContext.numberOfCombosRequested.compareTo(-1) == 0) {
 			processingContext.numberOfCombosRequested = comboHandler.getSizeAsInt();
 		}
@@ -399,18 +479,17 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 		}
 		Storage storageRef = null;
 		if (processingContext.overwriteIfExists < 1 && "filesystem".equalsIgnoreCase(processingContext.storageType)) {
-			storageRef = PersistentStorage.restore(processingContext.group, Storage.computeName(
+			PersistentStorage restoredStorage = PersistentStorage.restore(processingContext.group, Storage.computeName(
 				extractionDate, processingContext.combinationComponents, numberOfCombos, processingContext.suffix)
 			);
+			storageRef = restoredStorage;
 			if (storageRef != null) {
 				try {
 					long timeout = processingContext.waitingSomeoneForGenerationTimeout * 1000;
-					while (!storageRef.isClosed() && processingContext.overwriteIfExists == 0 && timeout >= 0) {
-						try {
-							LogUtils.INSTANCE.info("Waiting a maximum of " + timeout/1000 + " seconds for " + storageRef.getName() + " prepared by someone else");
-							Thread.sleep(timeout - (timeout -= 1000));
-						} catch (InterruptedException e) {
-							Throwables.INSTANCE.throwException(e);
+					if (!storageRef.isClosed() && processingContext.overwriteIfExists == 0) {
+						LogUtils.INSTANCE.info("Waiting a maximum of " + timeout/1000 + " seconds for " + storageRef.getName() + " prepared by someone else");
+						if (!restoredStorage.waitForClosing(timeout)) {
+							timeout = -1;
 						}
 					}
 					if (storageRef.isClosed()) {
@@ -624,6 +703,11 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 				storageRef.printAll();
 			}
 		}
+		CombinationFilterFactory.INSTANCE.logProfiles();
+		//Una volta chiuso il decoratore non serve piu' e viene restituito lo storage su cui ha scritto
+		if (storageRef instanceof WriteBehindStorage) {
+			return ((WriteBehindStorage)storageRef).getWrappedStorage();
+		}
 		return storageRef;
 	}
 
@@ -710,7 +794,12 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 			getProcessingContext().integerFormat.format(indexGeneratorCallsCounter.get()) + " calls. " +
 			getProcessingContext().integerFormat.format(indexesToBeProcessed.size()) + " indexes will be processed in the current iteration."
 		);
-		if (size <= uniqueIndexCounter.get() && indexesToBeProcessed.isEmpty()) {
+		ComboRankBitmap combinationFilterIndex = getProcessingContext().activeCombinationFilterIndex;
+		SumConstrainedComboSampler sumConstrainedComboSampler = getProcessingContext().activeSumConstrainedComboSampler;
+		long availableIndexes = combinationFilterIndex != null ? combinationFilterIndex.getCardinality() :
+			sumConstrainedComboSampler != null ? sumConstrainedComboSampler.getSize() :
+			size;
+		if (availableIndexes <= uniqueIndexCounter.get() && indexesToBeProcessed.isEmpty()) {
 			throw new AllRandomNumbersHaveBeenGeneratedException();
 		}
 		Map<Long, List<Integer>> indexForCombos = comboHandler.find(indexesToBeProcessed, true);
@@ -762,11 +851,31 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 	}
 
 	void buildComboIndexSupplier() {
-		getProcessingContext().comboIndexSupplier = getProcessingContext().comboIndexSelectorType.equals("random") ?
-			getProcessingContext().random::nextInt :
-			getProcessingContext().comboIndexSelectorType.equals("sequence") ?
-				this::nextSequencedIndex
-				: null;
+		ProcessingContext processingContext = getProcessingContext();
+		String comboIndexSelectorType = processingContext.comboIndexSelectorType;
+		Function<Integer, Integer> comboIndexSupplier = comboIndexSelectorType.equals("random") || comboIndexSelectorType.equals("sumRandom") ?
+			processingContext.random::nextInt :
+			this::nextSequencedIndex;
+		//Se e' disponibile l'indice del filtro gli indici vengono scelti solo tra quelli delle combinazioni accettate e
+		//allo stesso modo, se e' attivo il campionatore per somma, solo tra quelli delle combinazioni con somma ammessa
+		processingContext.comboIndexSupplier = size -> {
+			ComboRankBitmap combinationFilterIndex = processingContext.activeCombinationFilterIndex;
+			if (combinationFilterIndex != null) {
+				//Nessuna combinazione e' accettata dal filtro: senza questo controllo il generatore fallirebbe
+				if (combinationFilterIndex.getCardinality() == 0) {
+					throw new AllRandomNumbersHaveBeenGeneratedException();
+				}
+				return (int)combinationFilterIndex.select(comboIndexSupplier.apply((int)combinationFilterIndex.getCardinality()));
+			}
+			SumConstrainedComboSampler sumConstrainedComboSampler = processingContext.activeSumConstrainedComboSampler;
+			if (sumConstrainedComboSampler != null) {
+				if (sumConstrainedComboSampler.getSize() == 0) {
+					throw new AllRandomNumbersHaveBeenGeneratedException();
+				}
+				return (int)sumConstrainedComboSampler.select(comboIndexSupplier.apply((int)sumConstrainedComboSampler.getSize()));
+			}
+			return comboIndexSupplier.apply(size);
+		};
 	}
 
 	private Integer nextSequencedIndex(Integer size) {
@@ -814,6 +923,9 @@ public abstract class LotteryMatrixGeneratorAbstEngine {
 		private Function<Function<LocalDate, Function<List<Storage>, Integer>>, Function<Function<LocalDate, Consumer<List<Storage>>>, List<Storage>>> executor;
 		private Integer avoidMode;
 		private Predicate<List<Integer>> combinationFilter;
+		ComboRankBitmap combinationFilterIndex;
+		private ComboRankBitmap activeCombinationFilterIndex;
+		private SumConstrainedComboSampler activeSumConstrainedComboSampler;
 		private PredicateExpressionParser<List<Integer>> combinationFilterPreProcessor;
 		private String combinationFilterRaw;
 		private boolean testFilter;
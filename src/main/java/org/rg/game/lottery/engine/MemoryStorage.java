@@ -4,24 +4,34 @@ import java.io.BufferedReader;
 import java.io.StringReader;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.NoSuchElementException;
 
 import org.burningwave.Synchronizer;
 import org.burningwave.Throwables;
 import org.rg.game.core.LogUtils;
-import org.rg.game.core.MathUtils;
 
+//Le combinazioni vengono memorizzate impacchettate in un array di byte (un byte per numero) e deduplicate tramite
+//una tabella hash ad indirizzamento aperto che contiene gli indici delle combinazioni
 public class MemoryStorage implements Storage {
+	private static final int MAX_NUMBER = 255;
 
-	List<List<Integer>> combos = new ArrayList<>();
-	String output;
+	byte[] combos;
+	int combinationCount;
+	int size;
+	//Indice della combinazione + 1 (0 indica uno slot libero)
+	int[] slots;
+	StringBuilder output;
 	String name;
 	boolean isClosed;
-	Map<Integer, Integer> occurrences;
+	int[] occurrences;
+	//Per ogni valore di occorrenza quanti numeri lo hanno raggiunto
+	int[] occurrencesHistogram;
+	int minOccurrence;
+	int maxOccurrence;
 	Map<Number, Integer> historicalPremiums;
 
 	MemoryStorage(
@@ -33,14 +43,18 @@ public class MemoryStorage implements Storage {
 	) {
 		name = "[" + extractionDate.toString() + "]"+"[" + combinationCount +"]" +
 				"[" + numberOfCombos + "]" + /*"[" + toRawString(numbers) + "]" +*/ suffix + ".txt";
-		combos = new ArrayList<>();
-		output = "";
-		occurrences = new LinkedHashMap<>();
+		this.combinationCount = combinationCount;
+		int initialCapacity = Math.max(16, Math.min(numberOfCombos, 1 << 16));
+		combos = new byte[initialCapacity * combinationCount];
+		slots = new int[Integer.highestOneBit(initialCapacity) << 2];
+		output = new StringBuilder();
+		occurrences = new int[MAX_NUMBER + 1];
+		occurrencesHistogram = new int[16];
 	}
 
 	@Override
 	public int size() {
-		return combos.size();
+		return size;
 	}
 
 	@Override
@@ -50,31 +64,121 @@ public class MemoryStorage implements Storage {
 
 	@Override
 	public List<Integer> getCombo(int idx) {
-		return combos.get(idx);
+		if (idx < 0 || idx >= size) {
+			throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+		}
+		List<Integer> combo = new ArrayList<>(combinationCount);
+		for (int i = idx * combinationCount; i < (idx + 1) * combinationCount; i++) {
+			combo.add(combos[i] & 0xFF);
+		}
+		return combo;
 	}
 
 	@Override
 	public boolean addCombo(List<Integer> combo) {
-		if (!contains(combo)) {
-			output += ComboHandler.toString(combo) + "\n";
-			for (Integer number : combo) {
-				Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
-				occurrences.put(number, counter);
+		checkNumbers(combo);
+		int slot = findSlot(combo);
+		if (slots[slot] != 0) {
+			return false;
+		}
+		if ((size + 1) * combinationCount > combos.length) {
+			combos = Arrays.copyOf(combos, Math.max(combos.length << 1, (size + 1) * combinationCount));
+		}
+		int offset = size * combinationCount;
+		for (Integer number : combo) {
+			combos[offset++] = number.byteValue();
+			incrementOccurrences(number);
+		}
+		slots[slot] = ++size;
+		if (size << 1 > slots.length) {
+			rehash();
+		}
+		output.append(ComboHandler.toString(combo)).append("\n");
+		return true;
+	}
+
+	private void checkNumbers(List<Integer> combo) {
+		if (combo.size() != combinationCount) {
+			throw new IllegalArgumentException("Combo " + combo + " has not " + combinationCount + " numbers");
+		}
+		for (Integer number : combo) {
+			if (number < 0 || number > MAX_NUMBER) {
+				throw new IllegalArgumentException("Number " + number + " is out of range");
+			}
+		}
+	}
+
+	private int findSlot(List<Integer> combo) {
+		int mask = slots.length - 1;
+		int slot = hash(combo) & mask;
+		while (slots[slot] != 0 && !equals(slots[slot] - 1, combo)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int hash(List<Integer> combo) {
+		int hash = 1;
+		for (Integer number : combo) {
+			hash = 31 * hash + number;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private int hash(int idx) {
+		int hash = 1;
+		for (int i = idx * combinationCount; i < (idx + 1) * combinationCount; i++) {
+			hash = 31 * hash + (combos[i] & 0xFF);
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private boolean equals(int idx, List<Integer> combo) {
+		int offset = idx * combinationCount;
+		for (Integer number : combo) {
+			if ((combos[offset++] & 0xFF) != number) {
+				return false;
 			}
-			return combos.add(combo);
 		}
-		return false;
+		return true;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length << 1];
+		int mask = slots.length - 1;
+		for (int idx = 0; idx < size; idx++) {
+			int slot = hash(idx) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = idx + 1;
+		}
+	}
+
+	private void incrementOccurrences(int number) {
+		int occurrence = occurrences[number]++;
+		if (occurrence + 1 >= occurrencesHistogram.length) {
+			occurrencesHistogram = Arrays.copyOf(occurrencesHistogram, occurrencesHistogram.length << 1);
+		}
+		occurrencesHistogram[occurrence + 1]++;
+		if (occurrence == 0) {
+			minOccurrence = 1;
+		} else if (--occurrencesHistogram[occurrence] == 0 && occurrence == minOccurrence) {
+			minOccurrence = occurrence + 1;
+		}
+		maxOccurrence = Math.max(maxOccurrence, occurrence + 1);
 	}
 
 	public boolean contains(List<Integer> selectedCombo) {
-		for (List<Integer> combo : combos) {
-			for (Integer number : combo) {
-				if (!selectedCombo.contains(number)) {
-					return false;
-				}
+		if (selectedCombo.size() != combinationCount) {
+			return false;
+		}
+		for (Integer number : selectedCombo) {
+			if (number < 0 || number > MAX_NUMBER) {
+				return false;
 			}
 		}
-		return !combos.isEmpty();
+		return slots[findSlot(selectedCombo)] != 0;
 	}
 
 	@Override
@@ -84,25 +188,65 @@ public class MemoryStorage implements Storage {
 
 	@Override
 	public void printAll() {
-		LogUtils.INSTANCE.info(output);
+		LogUtils.INSTANCE.info(output.toString());
 	}
 
 	@Override
 	public boolean addLine(String value) {
-		output += "\n" + value;
+		output.append("\n").append(value);
+		//Il riepilogo viene analizzato mentre viene aggiunto invece di rileggere tutto il testo accumulato
+		if (value.contains(PersistentStorage.HISTORICAL_PREMIUMS_SUMMARY_LABEL)) {
+			try {
+				historicalPremiums = PersistentStorage.parseHistoricalPremiums(new BufferedReader(new StringReader(value)));
+			} catch (Throwable exc) {
+				LogUtils.INSTANCE.warn("Unable to parse historical premiums of " + name + ": " + exc.getMessage());
+			}
+		}
 		return true;
 	}
 
 	@Override
 	public boolean addLine() {
-		output += "\n";
+		output.append("\n");
 		return true;
 	}
 
 	@Override
 	public void delete() {
-		combos.clear();
-		output = "";
+		size = 0;
+		Arrays.fill(slots, 0);
+		Arrays.fill(occurrences, 0);
+		Arrays.fill(occurrencesHistogram, 0);
+		minOccurrence = maxOccurrence = 0;
+		output.setLength(0);
+	}
+
+	@Override
+	public void forEach(IntComboConsumer action) {
+		int[] combo = new int[combinationCount];
+		for (int offset = 0; offset < size * combinationCount; ) {
+			for (int i = 0; i < combinationCount; i++) {
+				combo[i] = combos[offset++] & 0xFF;
+			}
+			action.accept(combo);
+		}
+	}
+
+	@Override
+	public void forEachBits(ComboBitsConsumer action) {
+		for (int offset = 0; offset < size * combinationCount; ) {
+			long lowBits = 0;
+			long highBits = 0;
+			for (int i = 0; i < combinationCount; i++) {
+				int number = combos[offset++] & 0xFF;
+				if (number < 64) {
+					lowBits |= 1L << number;
+				} else {
+					highBits |= 1L << (number - 64);
+				}
+			}
+			action.accept(lowBits, highBits);
+		}
 	}
 
 	@Override
@@ -111,17 +255,15 @@ public class MemoryStorage implements Storage {
 			int currentIndex = 0;
 			@Override
 			public List<Integer> next() {
-				return combos.get(currentIndex++);
+				if (currentIndex >= size) {
+					throw new NoSuchElementException("No combo available");
+				}
+				return getCombo(currentIndex++);
 			}
 
 			@Override
 			public boolean hasNext() {
-				try {
-					combos.get(currentIndex);
-					return true;
-				} catch (IndexOutOfBoundsException exc) {
-					return false;
-				}
+				return currentIndex < size;
 			}
 		};
 	}
@@ -138,20 +280,12 @@ public class MemoryStorage implements Storage {
 
 	@Override
 	public Integer getMinOccurence() {
-		if (size() == 0) {
-			return 0;
-		}
-		TreeSet<Integer> occurrencesCounter = new TreeSet<>(occurrences.values());
-		return occurrencesCounter.iterator().next();
+		return minOccurrence;
 	}
 
 	@Override
 	public Integer getMaxOccurence() {
-		if (size() == 0) {
-			return 0;
-		}
-		TreeSet<Integer> occurrencesCounter = new TreeSet<>(occurrences.values());
-		return occurrencesCounter.descendingIterator().next();
+		return maxOccurrence;
 	}
 
 	@Override
@@ -159,29 +293,11 @@ public class MemoryStorage implements Storage {
 		if (this.historicalPremiums == null) {
 			Synchronizer.INSTANCE.execute(this + "_computeHistoricalPremiums", () -> {
 				if (this.historicalPremiums == null) {
-					Map<Number, Integer> historicalPremiums = new LinkedHashMap<>();
-					try (BufferedReader br = new BufferedReader(new StringReader(output))) {
-				        String line;
-				        boolean startToCollect = false;
-				        while ((line = br.readLine()) != null) {
-				           if (line.contains("Riepilogo risultati storici sistema dal")) {
-				        	   startToCollect = true;
-				        	   continue;
-				           } else if (line.contains("Costo:")) {
-				        	  break;
-				           }
-				           if (startToCollect && !(line = line.replaceAll("\\s+","")).isEmpty()) {
-				        	   String[] premiumLabelAndCounter = line.split(":");
-				        	   historicalPremiums.put(
-			        			   Premium.toType(premiumLabelAndCounter[0]),
-			        			   MathUtils.INSTANCE.integerFormat.parse(premiumLabelAndCounter[1]).intValue()
-		        			   );
-				           }
-				        }
-				    } catch (Throwable e) {
-						Throwables.INSTANCE.throwException(e);
+					try (BufferedReader reader = new BufferedReader(new StringReader(output.toString()))) {
+						this.historicalPremiums = PersistentStorage.parseHistoricalPremiums(reader);
+					} catch (Throwable exc) {
+						Throwables.INSTANCE.throwException(exc);
 					}
-					this.historicalPremiums = historicalPremiums;
 				}
 			});
 		}
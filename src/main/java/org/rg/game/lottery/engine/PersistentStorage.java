@@ -1,31 +1,61 @@
 package org.rg.game.lottery.engine;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.ParseException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
-import org.burningwave.Synchronizer;
 import org.burningwave.Throwables;
 import org.rg.game.core.CollectionUtils;
+import org.rg.game.core.ConcurrentLRUCache;
 import org.rg.game.core.LogUtils;
 import org.rg.game.core.MathUtils;
 
 public class PersistentStorage implements Storage {
+	private static final int FLUSH_COMBO_THRESHOLD;
+	static final String HISTORICAL_PREMIUMS_SUMMARY_LABEL = "Riepilogo risultati storici sistema dal";
+	private static final int STATS_MAGIC = 0x53455354;
+	private static final long FLUSH_TIME_THRESHOLD;
+	//Condivise tra tutte le istanze (anche ripristinate piu' volte) che leggono lo stesso file
+	private static final ConcurrentLRUCache<String, Map<Integer, Integer>> OCCURRENCES_CACHE;
+	private static final ConcurrentLRUCache<String, Map<Number, Integer>> HISTORICAL_PREMIUMS_CACHE;
 	private static String workingPath;
 	BufferedWriter bufferedWriter = null;
 	String absolutePath;
@@ -35,6 +65,30 @@ public class PersistentStorage implements Storage {
 	Boolean isClosed;
 	Map<Integer, Integer> occurrences;
 	Map<Number, Integer> historicalPremiums;
+	Set<Object> combos;
+	int unflushedCombos;
+	long lastFlushTime;
+	//Indice delle posizioni (in byte) delle combinazioni nel file: un long per combinazione preceduti dalla
+	//dimensione del file al momento della chiusura, usata per riconoscere un indice non aggiornato
+	String indexAbsolutePath;
+	DataOutputStream indexOutputStream;
+	long writtenBytes;
+	long[] comboOffsets;
+	//Creato alla chiusura solo se e' stata scritta la riga finale: permette di verificare la chiusura senza leggere il file
+	String closedMarkerAbsolutePath;
+	//Occorrenze e premi storici scritti alla chiusura per non dover analizzare nuovamente il report
+	String statsAbsolutePath;
+	boolean endLineWritten;
+	boolean deleted;
+	long lastScanForEndLineModifiedTime;
+
+	static {
+		FLUSH_COMBO_THRESHOLD = Integer.parseInt(CollectionUtils.INSTANCE.retrieveValue("persistent-storage.flush.combo-threshold", "1000"));
+		FLUSH_TIME_THRESHOLD = Long.parseLong(CollectionUtils.INSTANCE.retrieveValue("persistent-storage.flush.time-threshold", "1000"));
+		int reportCacheMaxSize = Integer.parseInt(CollectionUtils.INSTANCE.retrieveValue("persistent-storage.report-cache.max-size", "1000"));
+		OCCURRENCES_CACHE = new ConcurrentLRUCache<>(reportCacheMaxSize);
+		HISTORICAL_PREMIUMS_CACHE = new ConcurrentLRUCache<>(reportCacheMaxSize);
+	}
 
 	public PersistentStorage(
 		LocalDate extractionDate,
@@ -45,6 +99,15 @@ public class PersistentStorage implements Storage {
 	) {
 		absolutePath = (parentPath = buildWorkingPath(group)) + File.separator +
 			(name = Storage.computeName(extractionDate, combinationCount, numberOfCombos, suffix));
+		indexAbsolutePath = toIndexAbsolutePath(absolutePath);
+		closedMarkerAbsolutePath = toClosedMarkerAbsolutePath(absolutePath);
+		statsAbsolutePath = toStatsAbsolutePath(absolutePath);
+		new File(indexAbsolutePath).delete();
+		new File(closedMarkerAbsolutePath).delete();
+		new File(statsAbsolutePath).delete();
+		//Il formato viene riconosciuto dal file delle combinazioni per cui quello di una generazione precedente in un
+		//altro formato va eliminato: i formati binari lo ricreano subito dopo
+		new File(BinaryPersistentStorage.toCombosAbsolutePath(absolutePath)).delete();
 		try (FileChannel outChan = new FileOutputStream(absolutePath, true).getChannel()) {
 		  outChan.truncate(0);
 		} catch (IOException exc) {
@@ -56,15 +119,37 @@ public class PersistentStorage implements Storage {
 			Throwables.INSTANCE.throwException(exc);
 		}
 		occurrences = new LinkedHashMap<>();
+		combos = new HashSet<>();
+		lastFlushTime = System.currentTimeMillis();
+		comboOffsets = new long[16];
 	}
 
-	private PersistentStorage(String group, String fileName) {
+	PersistentStorage(String group, String fileName) {
 		absolutePath = (parentPath = buildWorkingPath(group)) + File.separator + fileName;
+		indexAbsolutePath = toIndexAbsolutePath(absolutePath);
+		closedMarkerAbsolutePath = toClosedMarkerAbsolutePath(absolutePath);
+		statsAbsolutePath = toStatsAbsolutePath(absolutePath);
 		name = fileName;
 		occurrences = new LinkedHashMap<>();
 	}
 
+	private static String toIndexAbsolutePath(String absolutePath) {
+		return absolutePath.substring(0, absolutePath.lastIndexOf(".")) + ".idx";
+	}
+
+	private static String toClosedMarkerAbsolutePath(String absolutePath) {
+		return absolutePath.substring(0, absolutePath.lastIndexOf(".")) + ".closed";
+	}
+
+	private static String toStatsAbsolutePath(String absolutePath) {
+		return absolutePath.substring(0, absolutePath.lastIndexOf(".")) + ".stats";
+	}
+
 	public static PersistentStorage restore(String group, String fileName) {
+		Format format = Format.detect(group, fileName);
+		if (format != Format.TEXT) {
+			return format.restore(group, fileName);
+		}
 		PersistentStorage storage = new PersistentStorage(group, fileName) {
 			@Override
 			public boolean addCombo(List<Integer> selectedCombo) {
@@ -83,21 +168,72 @@ public class PersistentStorage implements Storage {
 				throw new UnsupportedOperationException(this + " is only readable");
 			}
 		};
-		try {
-			Iterator<List<Integer>> comboIterator = storage.iterator();
-			while (comboIterator.hasNext()) {
-				comboIterator.next();
-				storage.size++;
-			}
-		} catch (Throwable exc) {
-			if (!(exc instanceof FileNotFoundException)) {
-				throw exc;
-			}
+		if (!new File(storage.absolutePath).exists()) {
 			return null;
 		}
+		storage.loadIndex();
 		return storage;
 	}
 
+	private void loadIndex() {
+		File indexFile = new File(indexAbsolutePath);
+		if (indexFile.exists()) {
+			try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+				if (index.length() >= Long.BYTES && index.readLong() == new File(absolutePath).length()) {
+					size = (int)((index.length() - Long.BYTES) / Long.BYTES);
+					return;
+				}
+			} catch (IOException exc) {
+				LogUtils.INSTANCE.warn("Unable to read index " + indexAbsolutePath + ": " + exc.getMessage());
+			}
+		}
+		rebuildIndex();
+	}
+
+	//L'indice ricostruito viene salvato solo se il file e' completo, altrimenti viene mantenuto in memoria
+	private void rebuildIndex() {
+		long[] comboOffsets = new long[16];
+		int size = 0;
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(absolutePath))) {
+			long offset = 0;
+			long lineStart = 0;
+			boolean isComboLine = true;
+			boolean isEmptyLine = true;
+			int value;
+			while ((value = inputStream.read()) != -1) {
+				offset++;
+				if (value == '\n') {
+					if (isEmptyLine || !isComboLine) {
+						break;
+					}
+					if (size == comboOffsets.length) {
+						comboOffsets = Arrays.copyOf(comboOffsets, size << 1);
+					}
+					comboOffsets[size++] = lineStart;
+					lineStart = offset;
+					isEmptyLine = true;
+				} else if (value != '\r') {
+					isComboLine &= (value >= '0' && value <= '9') || value == '\t';
+					isEmptyLine = false;
+				}
+			}
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+		this.comboOffsets = comboOffsets;
+		this.size = size;
+		if (isClosed()) {
+			try (DataOutputStream indexOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexAbsolutePath)))) {
+				indexOutputStream.writeLong(new File(absolutePath).length());
+				for (int i = 0; i < size; i++) {
+					indexOutputStream.writeLong(comboOffsets[i]);
+				}
+			} catch (IOException exc) {
+				LogUtils.INSTANCE.warn("Unable to write index " + indexAbsolutePath + ": " + exc.getMessage());
+			}
+		}
+	}
+
 	public static String buildWorkingPath() {
 		return buildWorkingPath(null);
 	}
@@ -153,34 +289,116 @@ public class PersistentStorage implements Storage {
 
 	@Override
 	public List<Integer> getCombo(int idx) {
-		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(absolutePath))){
-			String line = null;
-			int iterationIndex = 0;
-			while ((line = bufferedReader.readLine()) != null) {
-				if (line.split("\\t").length > 0) {
-					if (iterationIndex == idx) {
-						List<Integer> selectedCombo = new ArrayList<>();
-						for (String numberAsString : line.split("\\t")) {
-							try {
-								selectedCombo.add(Integer.parseInt(numberAsString));
-							} catch (NumberFormatException exc) {
-								return null;
+		if (idx < 0 || idx >= size) {
+			return null;
+		}
+		flush();
+		try (FileChannel channel = FileChannel.open(Paths.get(absolutePath), StandardOpenOption.READ)) {
+			long offset;
+			if (comboOffsets != null) {
+				offset = comboOffsets[idx];
+			} else {
+				try (FileChannel indexChannel = FileChannel.open(Paths.get(indexAbsolutePath), StandardOpenOption.READ)) {
+					ByteBuffer offsetBuffer = ByteBuffer.allocate(Long.BYTES);
+					readFully(indexChannel, offsetBuffer, Long.BYTES + (long)idx * Long.BYTES);
+					offset = offsetBuffer.getLong(0);
+				}
+			}
+			ByteBuffer lineBuffer = ByteBuffer.allocate(256);
+			channel.read(lineBuffer, offset);
+			lineBuffer.flip();
+			List<Integer> selectedCombo = new ArrayList<>();
+			int number = -1;
+			while (lineBuffer.hasRemaining()) {
+				byte value = lineBuffer.get();
+				if (value >= '0' && value <= '9') {
+					number = (number < 0 ? 0 : number * 10) + (value - '0');
+				} else if (value == '\t' && number >= 0) {
+					selectedCombo.add(number);
+					number = -1;
+				} else if (value == '\n' || value == '\r') {
+					break;
+				} else {
+					return null;
+				}
+			}
+			if (number >= 0) {
+				selectedCombo.add(number);
+			}
+			return selectedCombo;
+		} catch (IOException exc) {
+			return Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int readBytes = channel.read(buffer, position);
+			if (readBytes < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			position += readBytes;
+		}
+	}
+
+	//Le righe vengono analizzate direttamente sui byte letti senza creare stringhe: la lettura termina alla
+	//prima riga che non contiene una combinazione, come per l'iteratore
+	@Override
+	public void forEach(IntComboConsumer action) {
+		flush();
+		try (InputStream inputStream = new FileInputStream(absolutePath)) {
+			byte[] buffer = new byte[65536];
+			int[] numbers = new int[16];
+			int[] combo = new int[0];
+			int count = 0;
+			int number = -1;
+			int readBytes;
+			while ((readBytes = inputStream.read(buffer)) > 0) {
+				for (int i = 0; i < readBytes; i++) {
+					byte value = buffer[i];
+					if (value >= '0' && value <= '9') {
+						number = (number < 0 ? 0 : number * 10) + (value - '0');
+					} else if (number < 0) {
+						return;
+					} else if (value == '\t' || value == '\n') {
+						if (count == numbers.length) {
+							numbers = Arrays.copyOf(numbers, count << 1);
+						}
+						numbers[count++] = number;
+						number = -1;
+						if (value == '\n') {
+							if (combo.length != count) {
+								combo = new int[count];
 							}
+							System.arraycopy(numbers, 0, combo, 0, count);
+							action.accept(combo);
+							count = 0;
 						}
-						return selectedCombo;
+					} else if (value != '\r') {
+						return;
 					}
-					iterationIndex++;
 				}
 			}
+			if (number >= 0) {
+				if (count == numbers.length) {
+					numbers = Arrays.copyOf(numbers, count << 1);
+				}
+				numbers[count++] = number;
+				if (combo.length != count) {
+					combo = new int[count];
+				}
+				System.arraycopy(numbers, 0, combo, 0, count);
+				action.accept(combo);
+			}
 		} catch (IOException exc) {
 			Throwables.INSTANCE.throwException(exc);
 		}
-		return null;
 	}
 
 	@Override
 	@SuppressWarnings("resource")
 	public Iterator<List<Integer>> iterator() {
+		flush();
 		try {
 			BufferedReader bufferedReader = new BufferedReader(new FileReader(absolutePath));
 			return new Iterator<List<Integer>>() {
@@ -218,18 +436,7 @@ public class PersistentStorage implements Storage {
 				private List<Integer> nextCombo() {
 					try {
 						String line = bufferedReader.readLine();
-						if (line != null) {
-							List<Integer> selectedCombo = new ArrayList<>();
-							for (String numberAsString : line.split("\\t")) {
-								try {
-									selectedCombo.add(Integer.parseInt(numberAsString));
-								} catch (NumberFormatException exc) {
-									return null;
-								}
-							}
-							return selectedCombo;
-						}
-						return null;
+						return line != null ? parseCombo(line) : null;
 					} catch (IOException exc) {
 						return Throwables.INSTANCE.throwException(exc);
 					}
@@ -258,52 +465,212 @@ public class PersistentStorage implements Storage {
 
 	@Override
 	public boolean addCombo(List<Integer> combo) {
-		if (!contains(combo)) {
+		if (register(combo)) {
+			writeCombo(combo);
+			return true;
+		}
+		return false;
+	}
+
+	//Aggiunge la combinazione all'insieme usato per la deduplicazione senza scriverla: restituisce false se era gia'
+	//presente. Insieme a writeCombo permette di separare la verifica dei duplicati dalla scrittura (vedi
+	//WriteBehindStorage)
+	boolean register(List<Integer> combo) {
+		if (combos == null) {
+			throw new UnsupportedOperationException(this + " is only readable");
+		}
+		return combos.add(toKey(combo));
+	}
+
+	void writeCombo(List<Integer> combo) {
+		try {
+			String line = ComboHandler.toString(combo) + "\n";
+			bufferedWriter.write(line);
+			addToIndex(writtenBytes);
+			//Le combinazioni contengono solo caratteri ASCII
+			writtenBytes += line.length();
+			++size;
+			for (Integer number : combo) {
+				Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
+				occurrences.put(number, counter);
+			}
+			flushIfNeeded();
+		} catch (IOException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private void addToIndex(long offset) throws IOException {
+		if (indexOutputStream == null) {
+			indexOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexAbsolutePath)));
+			indexOutputStream.writeLong(-1);
+		}
+		indexOutputStream.writeLong(offset);
+		if (size == comboOffsets.length) {
+			comboOffsets = Arrays.copyOf(comboOffsets, size << 1);
+		}
+		comboOffsets[size] = offset;
+	}
+
+	//Combinazione compattata in un long (7 bit per numero) quando possibile
+	static Object toKey(List<Integer> combo) {
+		if (combo.size() > 9) {
+			return new ArrayList<>(combo);
+		}
+		long key = 0;
+		for (Integer number : combo) {
+			if (number < 0 || number > 127) {
+				return new ArrayList<>(combo);
+			}
+			key = (key << 7) | number;
+		}
+		return key;
+	}
+
+	//Restituisce null se la riga non contiene una combinazione (numeri separati da tabulazioni)
+	static List<Integer> parseCombo(String line) {
+		List<Integer> combo = new ArrayList<>();
+		int number = -1;
+		for (int i = 0; i < line.length(); i++) {
+			char value = line.charAt(i);
+			if (value >= '0' && value <= '9') {
+				number = (number < 0 ? 0 : number * 10) + (value - '0');
+			} else if (value == '\t' && number >= 0) {
+				combo.add(number);
+				number = -1;
+			} else {
+				return null;
+			}
+		}
+		if (number < 0) {
+			return null;
+		}
+		combo.add(number);
+		return combo;
+	}
+
+	static Map<Number, Integer> parseHistoricalPremiums(BufferedReader reader) throws IOException, ParseException {
+		Map<Number, Integer> historicalPremiums = new LinkedHashMap<>();
+		String line;
+		boolean startToCollect = false;
+		while ((line = reader.readLine()) != null) {
+			if (line.contains(HISTORICAL_PREMIUMS_SUMMARY_LABEL)) {
+				startToCollect = true;
+				continue;
+			} else if (line.contains("Costo")) {
+				break;
+			}
+			int separatorIndex = line.lastIndexOf(':');
+			if (startToCollect && separatorIndex >= 0) {
+				historicalPremiums.put(
+					Premium.toType(line.substring(0, separatorIndex).trim()),
+					MathUtils.INSTANCE.integerFormat.parse(line.substring(separatorIndex + 1).trim()).intValue()
+				);
+			}
+		}
+		return historicalPremiums;
+	}
+
+	private void writeStats() throws IOException {
+		File file = new File(absolutePath);
+		Map<Number, Integer> historicalPremiums = this.historicalPremiums != null ? this.historicalPremiums : new LinkedHashMap<>();
+		try (DataOutputStream statsOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(statsAbsolutePath)))) {
+			statsOutputStream.writeInt(STATS_MAGIC);
+			statsOutputStream.writeLong(file.length());
+			statsOutputStream.writeLong(file.lastModified());
+			statsOutputStream.writeInt(size);
+			statsOutputStream.writeInt(occurrences.size());
+			for (Map.Entry<Integer, Integer> occurrence : occurrences.entrySet()) {
+				statsOutputStream.writeInt(occurrence.getKey());
+				statsOutputStream.writeInt(occurrence.getValue());
+			}
+			statsOutputStream.writeInt(historicalPremiums.size());
+			for (Map.Entry<Number, Integer> historicalPremium : historicalPremiums.entrySet()) {
+				statsOutputStream.writeUTF(Premium.toLabel(historicalPremium.getKey()));
+				statsOutputStream.writeInt(historicalPremium.getValue());
+			}
+		}
+	}
+
+	//Restituisce null se i dati non esistono o non corrispondono piu' al file
+	private Stats readStats() {
+		File statsFile = new File(statsAbsolutePath);
+		if (!statsFile.exists()) {
+			return null;
+		}
+		File file = new File(absolutePath);
+		try (DataInputStream statsInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(statsFile)))) {
+			if (statsInputStream.readInt() != STATS_MAGIC || statsInputStream.readLong() != file.length() ||
+				statsInputStream.readLong() != file.lastModified() || statsInputStream.readInt() != size) {
+				return null;
+			}
+			Stats stats = new Stats();
+			for (int i = statsInputStream.readInt(); i > 0; i--) {
+				stats.occurrences.put(statsInputStream.readInt(), statsInputStream.readInt());
+			}
+			for (int i = statsInputStream.readInt(); i > 0; i--) {
+				stats.historicalPremiums.put(Premium.toType(statsInputStream.readUTF()), statsInputStream.readInt());
+			}
+			return stats;
+		} catch (IOException exc) {
+			LogUtils.INSTANCE.warn("Unable to read stats " + statsAbsolutePath + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	//Chiave delle cache condivise: cambia se il file viene modificato
+	String getCacheKey() {
+		File file = new File(absolutePath);
+		return absolutePath + ";" + file.length() + ";" + file.lastModified();
+	}
+
+	void flushIfNeeded() {
+		if (++unflushedCombos >= FLUSH_COMBO_THRESHOLD || System.currentTimeMillis() - lastFlushTime >= FLUSH_TIME_THRESHOLD) {
+			flush();
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (bufferedWriter != null && isClosed == null) {
 			try {
-				bufferedWriter.write(ComboHandler.toString(combo) + "\n");
 				bufferedWriter.flush();
-				++size;
-				for (Integer number : combo) {
-					Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
-					occurrences.put(number, counter);
+				if (indexOutputStream != null) {
+					indexOutputStream.flush();
 				}
 			} catch (IOException exc) {
 				Throwables.INSTANCE.throwException(exc);
 			}
-			return true;
+			unflushedCombos = 0;
+			lastFlushTime = System.currentTimeMillis();
 		}
-		return false;
 	}
 
 	@Override
 	public void addUnindexedCombo(List<Integer> selectedCombo) {
 		try {
-			bufferedWriter.write("\n" + ComboHandler.toString(selectedCombo));
-			bufferedWriter.flush();
+			write("\n" + ComboHandler.toString(selectedCombo));
 		} catch (IOException exc) {
 			Throwables.INSTANCE.throwException(exc);
 		}
 	}
 
 	public boolean contains(List<Integer> selectedCombo) {
-		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(absolutePath))){
-			String line = null;
-			while ((line = bufferedReader.readLine()) != null) {
-				for (String numberAsString : line.split("\\t")) {
-					if (!selectedCombo.contains(Integer.parseInt(numberAsString))) {
-						return false;
-					}
-				}
+		if (combos != null) {
+			return combos.contains(toKey(selectedCombo));
+		}
+		Iterator<List<Integer>> comboIterator = iterator();
+		while (comboIterator.hasNext()) {
+			if (comboIterator.next().equals(selectedCombo)) {
 				return true;
 			}
-		} catch (IOException exc) {
-			Throwables.INSTANCE.throwException(exc);
 		}
 		return false;
 	}
 
 	@Override
 	public void printAll() {
+		flush();
 	    try (BufferedReader br = new BufferedReader(new FileReader(absolutePath))) {
 	        String line;
 	        while ((line = br.readLine()) != null) {
@@ -322,8 +689,14 @@ public class PersistentStorage implements Storage {
 		if (bufferedWriter != null) {
 			return false;
 		}
+		if (new File(closedMarkerAbsolutePath).exists()) {
+			return isClosed = true;
+		}
+		//I file prodotti prima dell'introduzione del marcatore vengono letti solo se modificati dall'ultima lettura
 		synchronized (this) {
-			if (isClosed == null) {
+			long lastModifiedTime = new File(absolutePath).lastModified();
+			if (isClosed == null && lastModifiedTime != lastScanForEndLineModifiedTime) {
+				lastScanForEndLineModifiedTime = lastModifiedTime;
 				try (BufferedReader br = new BufferedReader(new FileReader(absolutePath))) {
 			        String line;
 			        while ((line = br.readLine()) != null) {
@@ -339,11 +712,54 @@ public class PersistentStorage implements Storage {
 		return isClosed != null ? isClosed : false;
 	}
 
+	//Attende la chiusura da parte di un altro processo tramite WatchService: la verifica viene comunque ripetuta ogni
+	//secondo perche' le cartelle condivise in rete potrebbero non notificare la creazione del marcatore
+	public boolean waitForClosing(long timeout) {
+		if (isClosed()) {
+			return true;
+		}
+		Path closedMarker = Paths.get(closedMarkerAbsolutePath);
+		long deadline = System.currentTimeMillis() + timeout;
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			closedMarker.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+			long remaining;
+			while (!isClosed() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+				WatchKey watchKey = watchService.poll(Math.min(remaining, 1000), TimeUnit.MILLISECONDS);
+				if (watchKey != null) {
+					watchKey.pollEvents();
+					watchKey.reset();
+				}
+			}
+		} catch (IOException | InterruptedException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+		return isClosed();
+	}
+
+	private void write(String value) throws IOException {
+		bufferedWriter.write(value);
+		writtenBytes += value.getBytes(Charset.defaultCharset()).length;
+	}
+
 	@Override
 	public void close() {
 		try {
 			isClosed = true;
 			bufferedWriter.close();
+			if (indexOutputStream != null) {
+				indexOutputStream.close();
+				if (!deleted) {
+					try (RandomAccessFile index = new RandomAccessFile(indexAbsolutePath, "rw")) {
+						index.writeLong(new File(absolutePath).length());
+					}
+				}
+			}
+			if (!deleted) {
+				writeStats();
+			}
+			if (endLineWritten && !deleted) {
+				Files.createFile(Paths.get(closedMarkerAbsolutePath));
+			}
 		} catch (IOException exc) {
 			LogUtils.INSTANCE.error(exc);
 		}
@@ -352,8 +768,16 @@ public class PersistentStorage implements Storage {
 	@Override
 	public boolean addLine(String value) {
 		try {
-			bufferedWriter.write("\n" + value);
-			bufferedWriter.flush();
+			write("\n" + value);
+			endLineWritten |= value.contains(END_LINE_PREFIX);
+			//Il riepilogo viene analizzato mentre viene scritto invece di rileggerlo dal file
+			if (value.contains(HISTORICAL_PREMIUMS_SUMMARY_LABEL)) {
+				try {
+					historicalPremiums = parseHistoricalPremiums(new BufferedReader(new StringReader(value)));
+				} catch (ParseException | IllegalArgumentException exc) {
+					LogUtils.INSTANCE.warn("Unable to parse historical premiums of " + name + ": " + exc.getMessage());
+				}
+			}
 		} catch (IOException e) {
 			Throwables.INSTANCE.throwException(e);
 		}
@@ -363,8 +787,7 @@ public class PersistentStorage implements Storage {
 	@Override
 	public boolean addLine() {
 		try {
-			bufferedWriter.write("\n");
-			bufferedWriter.flush();
+			write("\n");
 		} catch (IOException e) {
 			Throwables.INSTANCE.throwException(e);
 		}
@@ -373,12 +796,19 @@ public class PersistentStorage implements Storage {
 
 	@Override
 	public void delete() {
+		deleted = true;
 		try {
 			bufferedWriter.close();
+			if (indexOutputStream != null) {
+				indexOutputStream.close();
+			}
 		} catch (IOException e) {
 			Throwables.INSTANCE.throwException(e);
 		}
 		new File(absolutePath).delete();
+		new File(indexAbsolutePath).delete();
+		new File(closedMarkerAbsolutePath).delete();
+		new File(statsAbsolutePath).delete();
 	}
 
 	@Override
@@ -403,54 +833,109 @@ public class PersistentStorage implements Storage {
 
 	private void loadOccurrencesIfNeeded() {
 		if (occurrences.isEmpty()) {
-			Synchronizer.INSTANCE.execute(absolutePath + "_computeOccurrences", () -> {
-				if (occurrences.isEmpty()) {
-					Iterator<List<Integer>> comboItr = iterator();
+			flush();
+			occurrences = new LinkedHashMap<>(
+				OCCURRENCES_CACHE.getOrBuild(getCacheKey(), () -> {
+					Stats stats = readStats();
+					if (stats != null) {
+						return stats.occurrences;
+					}
 					Map<Integer, Integer> occurrences = new LinkedHashMap<>();
-					while (comboItr.hasNext()) {
-						for (Integer number : comboItr.next()) {
+					forEach(combo -> {
+						for (int number : combo) {
 							Integer counter = occurrences.computeIfAbsent(number, key -> 0) + 1;
 							occurrences.put(number, counter);
 						}
-					}
-					this.occurrences = occurrences;
-				}
-			});
+					});
+					return occurrences;
+				})
+			);
 		}
 	}
 
 	@Override
 	public Map<Number, Integer> getHistoricalPremiums() {
 		if (this.historicalPremiums == null) {
-			Synchronizer.INSTANCE.execute(absolutePath + "_computeHistoricalPremiums", () -> {
-				if (this.historicalPremiums == null) {
-					Map<Number, Integer> historicalPremiums = new LinkedHashMap<>();
-					try (BufferedReader br = new BufferedReader(new FileReader(absolutePath))) {
-				        String line;
-				        boolean startToCollect = false;
-				        while ((line = br.readLine()) != null) {
-				           if (line.contains("Riepilogo risultati storici sistema dal")) {
-				        	   startToCollect = true;
-				        	   continue;
-				           } else if (line.contains("Costo:")) {
-				        	  break;
-				           }
-				           if (startToCollect && !(line = line.replaceAll("\\s+","")).isEmpty()) {
-				        	   String[] premiumLabelAndCounter = line.split(":");
-				        	   historicalPremiums.put(
-			        			   Premium.toType(premiumLabelAndCounter[0]),
-			        			   MathUtils.INSTANCE.integerFormat.parse(premiumLabelAndCounter[1]).intValue()
-		        			   );
-				           }
-				        }
-				    } catch (Throwable e) {
-						Throwables.INSTANCE.throwException(e);
+			flush();
+			//Il report si trova sempre nel file di testo, qualunque sia il formato delle combinazioni
+			File file = new File(absolutePath);
+			this.historicalPremiums = HISTORICAL_PREMIUMS_CACHE.getOrBuild(
+				absolutePath + ";" + file.length() + ";" + file.lastModified(),
+				() -> {
+					Stats stats = readStats();
+					if (stats != null) {
+						return Collections.unmodifiableMap(stats.historicalPremiums);
+					}
+					try (BufferedReader reader = new BufferedReader(new FileReader(absolutePath))) {
+						return Collections.unmodifiableMap(parseHistoricalPremiums(reader));
+					} catch (Throwable exc) {
+						return Throwables.INSTANCE.throwException(exc);
 					}
-					this.historicalPremiums = historicalPremiums;
 				}
-			});
+			);
 		}
 		return historicalPremiums;
 	}
 
+	private static class Stats {
+		private final Map<Integer, Integer> occurrences = new LinkedHashMap<>();
+		private final Map<Number, Integer> historicalPremiums = new LinkedHashMap<>();
+	}
+
+	//Formato del file delle combinazioni: il report resta sempre nel file di testo
+	public static enum Format {
+		TEXT {
+			@Override
+			public PersistentStorage create(LocalDate extractionDate, int combinationCount, int numberOfCombos, String group, String suffix) {
+				return new PersistentStorage(extractionDate, combinationCount, numberOfCombos, group, suffix);
+			}
+
+			@Override
+			PersistentStorage restore(String group, String fileName) {
+				return PersistentStorage.restore(group, fileName);
+			}
+		},
+		BINARY {
+			@Override
+			public PersistentStorage create(LocalDate extractionDate, int combinationCount, int numberOfCombos, String group, String suffix) {
+				return new BinaryPersistentStorage(extractionDate, combinationCount, numberOfCombos, group, suffix);
+			}
+
+			@Override
+			PersistentStorage restore(String group, String fileName) {
+				return BinaryPersistentStorage.restore(group, fileName);
+			}
+		},
+		COMPRESSED {
+			@Override
+			public PersistentStorage create(LocalDate extractionDate, int combinationCount, int numberOfCombos, String group, String suffix) {
+				return new CompressedPersistentStorage(extractionDate, combinationCount, numberOfCombos, group, suffix);
+			}
+
+			@Override
+			PersistentStorage restore(String group, String fileName) {
+				return CompressedPersistentStorage.restore(group, fileName);
+			}
+		};
+
+		public abstract PersistentStorage create(LocalDate extractionDate, int combinationCount, int numberOfCombos, String group, String suffix);
+
+		abstract PersistentStorage restore(String group, String fileName);
+
+		public static Format of(String name) {
+			return valueOf(name.replaceAll("\\s+","").toUpperCase());
+		}
+
+		//Il formato viene riconosciuto dall'intestazione del file delle combinazioni affiancato al report
+		static Format detect(String group, String fileName) {
+			if (!BinaryPersistentStorage.exists(group, fileName)) {
+				return TEXT;
+			}
+			return CompressedPersistentStorage.isCompressed(
+				BinaryPersistentStorage.toCombosAbsolutePath(buildWorkingPath(group) + File.separator + fileName)
+			) ? COMPRESSED : BINARY;
+		}
+
+	}
+
 }
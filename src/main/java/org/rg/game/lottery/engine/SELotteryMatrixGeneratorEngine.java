@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -18,20 +17,29 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
+import org.rg.game.core.CollectionUtils;
 import org.rg.game.core.LogUtils;
+import org.rg.game.core.MathUtils;
 import org.rg.game.core.TimeUtils;
 
 public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEngine {
 	private static final List<Entry<Supplier<SELotteryMatrixGeneratorEngine>, Supplier<Properties>>> allPreviousEngineAndConfigurations;
 	public final static SELotteryMatrixGeneratorEngine DEFAULT_INSTANCE;
+	//Espressioni che vengono risolte usando le statistiche delle estrazioni
+	private static final Pattern STATS_DEPENDENT_EXPRESSION = Pattern.compile("lessExt|mostExt|allWinningCombos");
+	//Numero di combinazioni del sistema integrale elaborate da ciascun task nel test di efficacia dei filtri
+	private static final long EFFECTIVENESS_TEST_TASK_SIZE = 64L * CombinationFilterFactory.BLOCK_SIZE;
 
 	static {
 		allPreviousEngineAndConfigurations = new ArrayList<>();
@@ -207,35 +215,34 @@ public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEn
 			LogUtils.INSTANCE.info();
 		}
 		ComboHandler comboHandler = new ComboHandler(numbers, 6);
-		Collection<Long> comboPartitionIndexes = new HashSet<>();
 		int discardedFromIntegralSystem = 0;
-		int elaborationUnitSize = 25_000_000;
-		combinationFilter = CombinationFilterFactory.INSTANCE.parse(filterAsString);
-		for (long i = 0 ; i < comboHandler.getSizeAsLong(); i++) {
-			comboPartitionIndexes.add(i);
-			if (comboPartitionIndexes.size() == elaborationUnitSize) {
-				/*if (fineLog) {
-					LogUtils.INSTANCE.logInfo("Loaded " + integerFormat.format(i + 1) + " of indexes");
-				}*/
-				for (List<Integer> combo : comboHandler.find(comboPartitionIndexes, true).values()) {
-					if (!combinationFilter.test(combo)) {
-						discardedFromIntegralSystem++;
-					}
-				}
-				if (fineLog) {
-					LogUtils.INSTANCE.info("Processed " + getProcessingContext().integerFormat.format(i + 1) + " of combos");
-				}
-			}
-		}
-		if (comboPartitionIndexes.size() > 0) {
-			for (List<Integer> combo : comboHandler.find(comboPartitionIndexes, true).values()) {
-				if (!combinationFilter.test(combo)) {
-					discardedFromIntegralSystem++;
-				}
-			}
-			if (fineLog && comboHandler.getSizeAsInt() >= elaborationUnitSize) {
-				LogUtils.INSTANCE.info("Processed " + getProcessingContext().integerFormat.format(comboHandler.getSizeAsInt()) + " of combo");
-			}
+		Double discardedFromIntegralSystemMarginOfError = null;
+		long integralSystemSampleSize = 0;
+		ComboRankBitmap combinationFilterIndex = getProcessingContext().combinationFilterIndex;
+		if (combinationFilterIndex != null && combinationFilterIndex.matches(numbers, 6) &&
+			CombinationFilterFactory.INSTANCE.toCacheKey(combinationFilterIndex.getFilter()).equals(CombinationFilterFactory.INSTANCE.toCacheKey(filterAsString))
+		) {
+			//Le combinazioni scartate dal sistema integrale sono gia' state calcolate nell'indice del filtro
+			discardedFromIntegralSystem = (int)(combinationFilterIndex.getSize() - combinationFilterIndex.getCardinality());
+		} else if ("sampling".equalsIgnoreCase(CollectionUtils.INSTANCE.retrieveValue("combination.filter.effectiveness.mode", "exact").trim())) {
+			double confidence = Double.parseDouble(
+				CollectionUtils.INSTANCE.retrieveValue("combination.filter.effectiveness.confidence", "95")
+			);
+			double marginOfError = Double.parseDouble(
+				CollectionUtils.INSTANCE.retrieveValue("combination.filter.effectiveness.margin-of-error", "0.05")
+			);
+			double[] estimation = estimateDiscardedCombos(
+				CombinationFilterFactory.INSTANCE.optimize(filterAsString, numbers, 6),
+				numbers, comboHandler.getSizeAsLong(), confidence, marginOfError, fineLog
+			);
+			discardedFromIntegralSystem = (int)Math.round(estimation[0] * comboHandler.getSizeAsLong());
+			discardedFromIntegralSystemMarginOfError = estimation[1] * 100;
+			integralSystemSampleSize = (long)estimation[2];
+		} else {
+			discardedFromIntegralSystem = (int)countDiscardedCombos(
+				CombinationFilterFactory.INSTANCE.optimize(filterAsString, numbers, 6),
+				numbers, comboHandler.getSizeAsLong(), fineLog
+			);
 		}
 		if (fineLog && discardedFromHistory > 0) {
 			LogUtils.INSTANCE.info();
@@ -266,8 +273,13 @@ public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEn
 		report.append("Integral system total combos:" + rightAlignedString(getProcessingContext().decimalFormat.format(comboHandler.getSizeAsInt()), 23) + "\n");
 		report.append("Integral system discarded combos:" + rightAlignedString(getProcessingContext().decimalFormat.format(discardedFromIntegralSystem), 19) + "\n");
 		report.append("Integral system discarded combos percentage:" + rightAlignedString(getProcessingContext().decimalFormat.format(discardedFromIntegralSystemPercentage) + " %", 10) + "\n");
+		if (discardedFromIntegralSystemMarginOfError != null) {
+			report.append("Integral system sampled combos:" + rightAlignedString(getProcessingContext().integerFormat.format(integralSystemSampleSize), 21) + "\n");
+			report.append("Integral system discarded combos margin:" + rightAlignedString("± " + getProcessingContext().decimalFormat.format(discardedFromIntegralSystemMarginOfError) + " %", 14) + "\n");
+		}
 		report.append("Effectiveness:" + rightAlignedString(getProcessingContext().decimalFormat.format(effectiveness) + " %", 40) +"\n");
 		LogUtils.INSTANCE.info(report.toString() + "\nFilter analysis ended\n");
+		CombinationFilterFactory.INSTANCE.logProfiles();
 
 		stats.put("totalExtractionsAnalyzed", allWinningCombos.size());
 		stats.put("discardedWinningCombos", discardedFromHistory);
@@ -277,14 +289,122 @@ public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEn
 		stats.put("integralSystemTotalCombos", comboHandler.getSizeAsInt());
 		stats.put("integralSystemDiscardedCombos", discardedFromIntegralSystem);
 		stats.put("integralSystemDiscardedCombosPercentage", discardedFromIntegralSystemPercentage);
+		if (discardedFromIntegralSystemMarginOfError != null) {
+			stats.put("integralSystemSampledCombos", integralSystemSampleSize);
+			stats.put("integralSystemDiscardedCombosMarginOfError", discardedFromIntegralSystemMarginOfError);
+		}
 		stats.put("report", report);
 		return stats;
 	}
 
+	//Gli intervalli di rank vengono elaborati in parallelo e ciascun task restituisce il proprio conteggio
+	private long countDiscardedCombos(IntComboPredicate compiledFilter, List<Integer> numbers, long size, boolean fineLog) {
+		long elaborationUnitSize = 25_000_000;
+		AtomicLong processedCombos = new AtomicLong(0);
+		return LongStream.range(0, (size + EFFECTIVENESS_TEST_TASK_SIZE - 1) / EFFECTIVENESS_TEST_TASK_SIZE).parallel().map(taskIndex -> {
+			long fromRank = taskIndex * EFFECTIVENESS_TEST_TASK_SIZE;
+			long toRank = Math.min(fromRank + EFFECTIVENESS_TEST_TASK_SIZE, size);
+			ComboBlockIterator comboIterator = new ComboBlockIterator(numbers, 6, fromRank, toRank, CombinationFilterFactory.BLOCK_SIZE);
+			long[] blockResults = new long[CombinationFilterFactory.BLOCK_SIZE / Long.SIZE];
+			long discardedCombos = 0;
+			while (comboIterator.hasNext()) {
+				int count = comboIterator.next();
+				CombinationFilterFactory.INSTANCE.test(compiledFilter, comboIterator.getColumns(), count, blockResults);
+				discardedCombos += count - bitCount(blockResults);
+			}
+			long processed = processedCombos.addAndGet(toRank - fromRank);
+			if (fineLog && processed / elaborationUnitSize > (processed - (toRank - fromRank)) / elaborationUnitSize) {
+				LogUtils.INSTANCE.info("Processed " + getProcessingContext().integerFormat.format(processed) + " of combos");
+			}
+			return discardedCombos;
+		}).sum();
+	}
+
+	//Stima la percentuale di combinazioni scartate su campioni uniformi del sistema integrale: i campioni vengono
+	//estratti finche' la semiampiezza dell'intervallo di confidenza non scende sotto il margine indicato (entrambi
+	//in punti percentuali). Restituisce la proporzione stimata, la semiampiezza e il numero di combinazioni campionate
+	private double[] estimateDiscardedCombos(
+		IntComboPredicate compiledFilter,
+		List<Integer> numbers,
+		long size,
+		double confidence,
+		double marginOfError,
+		boolean fineLog
+	) {
+		double z = MathUtils.INSTANCE.normalQuantile(0.5 + confidence / 200d);
+		int tasksPerRound = Runtime.getRuntime().availableProcessors();
+		long sampleSize = 0;
+		long discardedCombos = 0;
+		double proportion;
+		double halfWidth;
+		int round = 0;
+		do {
+			long seed = round++ * (long)tasksPerRound;
+			discardedCombos += LongStream.range(seed, seed + tasksPerRound).parallel()
+				.map(taskIndex -> sampleDiscardedCombos(compiledFilter, numbers, new SplittableRandom(taskIndex)))
+				.sum();
+			sampleSize += tasksPerRound * EFFECTIVENESS_TEST_TASK_SIZE;
+			proportion = discardedCombos / (double)sampleSize;
+			halfWidth = z * Math.sqrt(proportion * (1 - proportion) / sampleSize);
+			if (fineLog) {
+				LogUtils.INSTANCE.info(
+					"Sampled " + getProcessingContext().integerFormat.format(sampleSize) + " of combos: " +
+					getProcessingContext().decimalFormat.format(proportion * 100) + " % ± " +
+					getProcessingContext().decimalFormat.format(halfWidth * 100) + " % discarded"
+				);
+			}
+		} while (halfWidth * 100 > marginOfError && sampleSize < size);
+		return new double[] {proportion, halfWidth, sampleSize};
+	}
+
+	//Ogni combinazione del campione e' estratta in modo uniforme con l'algoritmo di Fisher-Yates parziale sui numeri
+	private long sampleDiscardedCombos(IntComboPredicate compiledFilter, List<Integer> numbers, SplittableRandom random) {
+		int[] numbersAsArray = numbers.stream().mapToInt(Integer::intValue).toArray();
+		int[][] columns = new int[6][CombinationFilterFactory.BLOCK_SIZE];
+		int[] combo = new int[6];
+		long[] blockResults = new long[CombinationFilterFactory.BLOCK_SIZE / Long.SIZE];
+		long discardedCombos = 0;
+		for (long sampled = 0; sampled < EFFECTIVENESS_TEST_TASK_SIZE; sampled += CombinationFilterFactory.BLOCK_SIZE) {
+			for (int row = 0; row < CombinationFilterFactory.BLOCK_SIZE; row++) {
+				for (int i = 0; i < combo.length; i++) {
+					int j = i + random.nextInt(numbersAsArray.length - i);
+					int number = numbersAsArray[j];
+					numbersAsArray[j] = numbersAsArray[i];
+					numbersAsArray[i] = combo[i] = number;
+				}
+				Arrays.sort(combo);
+				for (int i = 0; i < combo.length; i++) {
+					columns[i][row] = combo[i];
+				}
+			}
+			CombinationFilterFactory.INSTANCE.test(compiledFilter, columns, CombinationFilterFactory.BLOCK_SIZE, blockResults);
+			discardedCombos += CombinationFilterFactory.BLOCK_SIZE - bitCount(blockResults);
+		}
+		return discardedCombos;
+	}
+
+	private int bitCount(long[] words) {
+		int bitCount = 0;
+		for (long word : words) {
+			bitCount += Long.bitCount(word);
+		}
+		return bitCount;
+	}
+
 	private String rightAlignedString(String value, int emptySpacesCount) {
 		return String.format("%" + emptySpacesCount + "s", value);
 	}
 
+	@Override
+	protected String getStatsKey(String filterAsString, LocalDate extractionDate) {
+		if (!STATS_DEPENDENT_EXPRESSION.matcher(filterAsString).find()) {
+			return "";
+		}
+		SEStats sEStats = getSEStats(extractionDate);
+		Date latestExtractionDate = sEStats.getLatestExtractionDate();
+		return sEStats.getStartDate() + "->" + (latestExtractionDate != null ? latestExtractionDate.getTime() : "");
+	}
+
 	@Override
 	protected String processStatsExpression(String expression, LocalDate extractionDate) {
 		String[] options = expression.replaceAll("\\s+","").split("lessExtCouple|lessExt|mostExtCouple|mostExt");
@@ -328,14 +448,15 @@ public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEn
 		String[] options = expression.replaceAll("\\s+","").split("inallWinningCombos");
 		if (options.length > 1) {
 			String[] groupOptions = options[1].split(":");
-			List<String> inClauses = new ArrayList<>();
+			//Lo storico viene verificato da un unico filtro invece che da un OR di filtri 'in' (uno per estrazione)
+			List<String> winningCombos = new ArrayList<>();
 			for (List<Integer> winningCombo :getSEStats(extractionDate).getAllWinningCombos().values()) {
-				inClauses.add("in " + ComboHandler.toString(winningCombo, ",") + ":" + groupOptions[1]);
+				winningCombos.add(ComboHandler.toString(winningCombo, ","));
 			}
-			if (inClauses.isEmpty()) {//Storico non disponibile: probabilmente la data di inizio e fine sono la stessa. In questo caso controllare il file di configurazione
+			if (winningCombos.isEmpty()) {//Storico non disponibile: probabilmente la data di inizio e fine sono la stessa. In questo caso controllare il file di configurazione
 				return "";
 			}
-			return "(" + String.join("|", inClauses) + ")";
+			return "historyOverlap " + String.join("/", winningCombos) + ":" + groupOptions[1];
 		}
 		return expression;
 	}
@@ -448,7 +569,7 @@ public class SELotteryMatrixGeneratorEngine extends LotteryMatrixGeneratorAbstEn
 	@Override
 	protected Map<String, Object> checkQuality(Storage storage, LocalDate extractionDate) {
 		return getSEStats(extractionDate)
-			.checkQuality(storage::iterator);
+			.checkQuality(storage);
 	}
 
 	@Override
@@ -1,12 +1,22 @@
 package org.rg.game.lottery.engine;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -14,6 +24,7 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,14 +39,16 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.apache.poi.ss.usermodel.Cell;
@@ -53,6 +66,7 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.rg.game.core.ConcurrentLRUCache;
 import org.rg.game.core.FirestoreWrapper;
 import org.rg.game.core.IOUtils;
 import org.rg.game.core.LogUtils;
@@ -63,8 +77,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.firestore.DocumentSnapshot;
 
 public class SEStats {
-	private static final Map<String, SEStats> CACHE;
-	private static final int CACHE_MAX_SIZE;
+	private static final ConcurrentLRUCache<String, SEStats> CACHE;
+	//Stima approssimativa in byte di una estrazione memorizzata nello storico (data, entry del TreeMap e lista)
+	private static final long ESTIMATED_HISTORY_ENTRY_SIZE = 136;
 	public static final String FIRST_EXTRACTION_DATE_AS_STRING = "03/12/1997";
 	public static final LocalDate FIRST_EXTRACTION_LOCAL_DATE = LocalDate.parse(FIRST_EXTRACTION_DATE_AS_STRING, TimeUtils.defaultLocalDateFormat);
 	public static final Date FIRST_EXTRACTION_DATE = TimeUtils.toDate(FIRST_EXTRACTION_LOCAL_DATE);
@@ -74,9 +89,19 @@ public class SEStats {
 	public static final Date FIRST_EXTRACTION_DATE_WITH_NEW_MACHINE = TimeUtils.toDate(FIRST_EXTRACTION_LOCAL_DATE_WITH_NEW_MACHINE);
 
 	public static final List<Integer> NUMBERS = IntStream.range(1, 91).boxed().collect(Collectors.toList());
+	private static final int[][] BINOMIALS = buildBinomials(NUMBERS.size(), 3);
+	static final int PAIR_COUNT = BINOMIALS[NUMBERS.size()][2];
+	static final int TRIPLE_COUNT = BINOMIALS[NUMBERS.size()][3];
+	//I numeri di ogni coppia e di ogni tripletta indicizzati per rango
+	static final byte[] PAIRS = buildNumbersOfRanks(2);
+	static final byte[] TRIPLES = buildNumbersOfRanks(3);
 
 	private static boolean forceLoadingFromExcel;
 	private static boolean loadingFromFirebaseEnabled;
+	private static boolean slidingWindowEnabled;
+	private static String localFileDataLoaderPath;
+	private static int localFileDataLoaderPosition;
+	private static String localFileDataStorerPath;
 
 	public final static List<DayOfWeek> EXTRACTION_DAYS;
 
@@ -85,26 +110,42 @@ public class SEStats {
 				Boolean.parseBoolean(System.getenv().getOrDefault("se-stats.force-loading-from-excel", "false"));
 		SEStats.loadingFromFirebaseEnabled =
 				Boolean.parseBoolean(System.getenv().getOrDefault("se-stats.loading-from-firebase-enabled", "true")) && FirestoreWrapper.get() != null;
-		CACHE = new LinkedHashMap<>();
-		CACHE_MAX_SIZE = Optional.ofNullable(System.getenv("se-stats.cache.max-size")).map(Integer::parseInt).orElseGet(() -> 100);
+		SEStats.slidingWindowEnabled =
+				Boolean.parseBoolean(System.getenv().getOrDefault("se-stats.sliding-window.enabled", "true"));
+		SEStats.localFileDataLoaderPath = System.getenv("se-stats.local-file-data-loader.path");
+		SEStats.localFileDataLoaderPosition =
+				Integer.parseInt(System.getenv().getOrDefault("se-stats.local-file-data-loader.position", "1"));
+		SEStats.localFileDataStorerPath = System.getenv("se-stats.local-file-data-storer.path");
+		CACHE = new ConcurrentLRUCache<>(
+			Optional.ofNullable(System.getenv("se-stats.cache.max-size")).map(Integer::parseInt).orElseGet(() -> 100),
+			Optional.ofNullable(System.getenv("se-stats.cache.max-weight-in-mb")).map(Long::parseLong).orElseGet(() -> 512L) * 1024 * 1024,
+			SEStats::estimateRetainedSize,
+			sEStats -> !sEStats.global
+		);
 		EXTRACTION_DAYS = Stream.of(System.getenv().getOrDefault("se-stats.extraction-days", "TUESDAY,THURSDAY,FRIDAY,SATURDAY")
 			.replaceAll("\\s+","").toUpperCase().split(",")).map(DayOfWeek::valueOf).collect(Collectors.toList());
 	}
 
 	private boolean global;
+	//Le viste delle finestre mobili condividono lo storico delle statistiche globali
+	private boolean historyShared;
 
 	protected Date startDate;
 	protected Date endDate;
 
-	private List<Map.Entry<String, Integer>> extractedNumberPairCounters;
-	private List<Map.Entry<String, Integer>> extractedNumberTripleCounters;
-	private List<Map.Entry<Integer, Integer>> extractedNumberCountersFromMostExtractedCouple;
-	private List<Map.Entry<Integer, Integer>> extractedNumberCountersFromMostExtractedTriple;
-	private List<Map.Entry<String, Integer>> extractedNumberCounters;
-	private List<Map.Entry<String, Integer>> counterOfAbsencesFromCompetitions;
-	private List<Map.Entry<String, Integer>> absencesRecordFromCompetitions;
-	private List<Map.Entry<String, Integer>> distanceFromAbsenceRecord;
-	private List<Map.Entry<String, Double>> distanceFromAbsenceRecordPercentage;
+	//Le statistiche e le classifiche vengono calcolate solo alla prima richiesta
+	private final Memoized<int[][]> numberStats = new Memoized<>(this::computeNumberStats);
+	private final Memoized<int[]> extractedNumberPairCounters = new Memoized<>(() -> computeMultipleNumberCounters(2));
+	private final Memoized<int[]> extractedNumberTripleCounters = new Memoized<>(() -> computeMultipleNumberCounters(3));
+	private final Memoized<int[][]> extractedNumberCountersFromMostExtractedCouple =
+		new Memoized<>(() -> toNumberCounters(extractedNumberPairCounters.get(), PAIRS));
+	private final Memoized<int[][]> extractedNumberCountersFromMostExtractedTriple =
+		new Memoized<>(() -> toNumberCounters(extractedNumberTripleCounters.get(), TRIPLES));
+	private final Memoized<int[]> extractedNumberRank = new Memoized<>(this::computeExtractedNumberRank);
+	private final Memoized<int[]> counterOfAbsencesFromCompetitionsRank = new Memoized<>(this::computeCounterOfAbsencesFromCompetitionsRank);
+	private final Memoized<int[]> absencesRecordFromCompetitionsRank = new Memoized<>(this::computeAbsencesRecordFromCompetitionsRank);
+	private final Memoized<int[]> distanceFromAbsenceRecordRank = new Memoized<>(this::computeDistanceFromAbsenceRecordRank);
+	private final Memoized<int[]> distanceFromAbsenceRecordPercentageRank = new Memoized<>(this::computeDistanceFromAbsenceRecordPercentageRank);
 	private Map<Date, List<Integer>> allWinningCombos;
 	private Map<Date, List<Integer>> allWinningCombosWithJollyAndSuperstar;
 
@@ -112,6 +153,34 @@ public class SEStats {
 		init(startDate, endDate);
 	}
 
+	SEStats(
+		SEStats source,
+		Date startDate,
+		Date endDate,
+		int[][] numberStats,
+		int[] extractedNumberPairCounters,
+		int[] extractedNumberTripleCounters
+	) {
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.historyShared = true;
+		this.allWinningCombos = subMap(source.allWinningCombos, startDate, endDate);
+		this.allWinningCombosWithJollyAndSuperstar = subMap(source.allWinningCombosWithJollyAndSuperstar, startDate, endDate);
+		this.numberStats.init(numberStats);
+		this.extractedNumberPairCounters.init(extractedNumberPairCounters);
+		this.extractedNumberTripleCounters.init(extractedNumberTripleCounters);
+	}
+
+	private static Map<Date, List<Integer>> subMap(Map<Date, List<Integer>> allWinningCombos, Date startDate, Date endDate) {
+		if (endDate.before(startDate)) {
+			return Collections.emptyMap();
+		}
+		//Lo storico e' ordinato dalla estrazione piu' recente
+		return Collections.unmodifiableMap(
+			((NavigableMap<Date, List<Integer>>)allWinningCombos).subMap(endDate, true, startDate, true)
+		);
+	}
+
 	public static final SEStats get(String startDate, String endDate) {
 		boolean isGlobal = false;
 		LocalDate today = TimeUtils.today();
@@ -119,42 +188,69 @@ public class SEStats {
 			endDate = TimeUtils.defaultLocalDateFormat.format(today);
 			isGlobal = startDate.equals(FIRST_EXTRACTION_DATE_AS_STRING) || startDate.equals(FIRST_EXTRACTION_DATE_WITH_NEW_MACHINE_AS_STRING);
 		}
-		String key = startDate+"->"+endDate;
-		SEStats sEStats = CACHE.get(key);
-		if (sEStats == null) {
-			synchronized(CACHE) {
-				sEStats = CACHE.get(key);
-				if (sEStats == null) {
-					if (CACHE.size() >= CACHE_MAX_SIZE) {
-						clear();
-					}
-					sEStats = new SEStats(startDate, endDate);
-					sEStats.global = isGlobal;
-					CACHE.put(key, sEStats);
+		String start = startDate;
+		String end = endDate;
+		boolean global = isGlobal;
+		return CACHE.getOrBuild(start+"->"+end, () -> {
+			if (slidingWindowEnabled && !global && !(start.equals(FIRST_EXTRACTION_DATE_AS_STRING) && end.equals(TimeUtils.defaultLocalDateFormat.format(today)))) {
+				try {
+					return SEStatsWindow.viewOf(
+						SEStats.get(FIRST_EXTRACTION_DATE_AS_STRING, TimeUtils.defaultLocalDateFormat.format(today)),
+						buildDate(start),
+						buildDate(end)
+					);
+				} catch (Throwable exc) {
+					LogUtils.INSTANCE.warn("Unable to build " + SEStats.class.getSimpleName() + " for period " + start + " -> " + end + " from sliding window: " + exc.getMessage());
 				}
 			}
-		}
-		return sEStats;
+			SEStats sEStats = new SEStats(start, end);
+			sEStats.global = global;
+			return sEStats;
+		});
 	}
 
 	public static void hardClear() {
-		synchronized(CACHE) {
-			CACHE.clear();
-		}
+		CACHE.clear();
 	}
 
 	public static void clear() {
-		LogUtils.INSTANCE.info("Cleaning " + SEStats.class.getSimpleName() + " cache");
-		synchronized(CACHE) {
-			Iterator<Map.Entry<String, SEStats>> sEStatsIterator = CACHE.entrySet().iterator();
-			while (sEStatsIterator.hasNext()) {
-				Map.Entry<String, SEStats> sEStatsData = sEStatsIterator.next();
-				if (!sEStatsData.getValue().global) {
-					sEStatsIterator.remove();
-				}
+		LogUtils.INSTANCE.info("Cleaning " + SEStats.class.getSimpleName() + " cache (" + CACHE.getStatistics() + ")");
+		CACHE.removeIf(sEStats -> !sEStats.global);
+		LogUtils.INSTANCE.info(SEStats.class.getSimpleName() + " cache cleaned");
+	}
+
+	public static long getCacheHitCount() {
+		return CACHE.getHitCount();
+	}
+
+	public static long getCacheMissCount() {
+		return CACHE.getMissCount();
+	}
+
+	long estimateRetainedSize() {
+		long size = historyShared ? 0 : (allWinningCombos.size() + allWinningCombosWithJollyAndSuperstar.size()) * ESTIMATED_HISTORY_ENTRY_SIZE;
+		for (Memoized<?> computedStats : Arrays.asList(
+			numberStats, extractedNumberPairCounters, extractedNumberTripleCounters,
+			extractedNumberCountersFromMostExtractedCouple, extractedNumberCountersFromMostExtractedTriple,
+			extractedNumberRank, counterOfAbsencesFromCompetitionsRank, absencesRecordFromCompetitionsRank,
+			distanceFromAbsenceRecordRank, distanceFromAbsenceRecordPercentageRank
+		)) {
+			size += estimateSizeOf(computedStats.getIfComputed());
+		}
+		return size;
+	}
+
+	private static long estimateSizeOf(Object array) {
+		if (array instanceof int[]) {
+			return 16 + 4L * ((int[])array).length;
+		} else if (array instanceof int[][]) {
+			long size = 16 + 8L * ((int[][])array).length;
+			for (int[] row : (int[][])array) {
+				size += estimateSizeOf(row);
 			}
+			return size;
 		}
-		LogUtils.INSTANCE.info(SEStats.class.getSimpleName() + " cache cleaned");
+		return 0;
 	}
 
 	private void init(String startDate, String endDate) {
@@ -162,13 +258,19 @@ public class SEStats {
 		this.endDate = buildDate(endDate);
 		this.allWinningCombos = new TreeMap<>(TimeUtils.reversedDateComparator);
 		this.allWinningCombosWithJollyAndSuperstar = new TreeMap<>(TimeUtils.reversedDateComparator);
-		Collection<DataLoader> dataLoaders = new ArrayList<>();
+		List<DataLoader> dataLoaders = new ArrayList<>();
 		dataLoaders.add(new FromGlobalSEStatsDataLoader(this.startDate, this.endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar));
 		if (loadingFromFirebaseEnabled) {
 			dataLoaders.add(new FromFirebaseSEStatsDataLoader(this.startDate, this.endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar));
 		}
 		dataLoaders.add(new InternetDataLoader(this.startDate, this.endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar));
 		dataLoaders.add(new FromExcelDataLoader(this.startDate, this.endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar));
+		if (localFileDataLoaderPath != null) {
+			dataLoaders.add(
+				Math.max(0, Math.min(localFileDataLoaderPosition, dataLoaders.size())),
+				new FromLocalFileDataLoader(this.startDate, this.endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar)
+			);
+		}
 		Collection<DataStorer> dataStorers = new ArrayList<>();
 		if ((startDate.equals(FIRST_EXTRACTION_DATE_AS_STRING) || startDate.equals(FIRST_EXTRACTION_DATE_WITH_NEW_MACHINE_AS_STRING)) && TimeUtils.getDefaultDateFormat().format(new Date()).equals(endDate)) {
 			/*dataStorers.add(
@@ -178,6 +280,9 @@ public class SEStats {
 			if (FirestoreWrapper.get() != null) {
 				dataStorers.add(new ToFirebaseDataStorer(this));
 			}
+			if (localFileDataStorerPath != null) {
+				dataStorers.add(new ToLocalFileDataStorer(this));
+			}
 		}
 		boolean dataLoaded = false;
 		Class<DataLoader> dataLoaderClass = null;
@@ -195,7 +300,6 @@ public class SEStats {
 			throw new RuntimeException("Unable to load data");
 		}
 
-		loadStats();
 		LogUtils.INSTANCE.info();
 		LogUtils.INSTANCE.info(
 			"All extraction data have been succesfully loaded for period " + startDate + " -> " + endDate +
@@ -223,7 +327,7 @@ public class SEStats {
 		return endDate;
 	}
 
-	private Date buildDate(String dateAsString) {
+	private static Date buildDate(String dateAsString) {
 		try {
 			return TimeUtils.getDefaultDateFormat().parse(dateAsString);
 		} catch (ParseException exc) {
@@ -231,131 +335,294 @@ public class SEStats {
 		}
 	}
 
-	private Map<String, Integer> buildExtractedNumberPairCountersMap() {
-		ComboHandler comboHandler = new ComboHandler(SEStats.NUMBERS, 2);
-		Collection<List<Integer>> allCouples = comboHandler.find(LongStream.range(0, comboHandler.getSizeAsLong()).boxed().collect(Collectors.toList()), true).values();
-		Map<String, Integer> extractedNumberPairCountersMap = allCouples.stream().map(couple ->
-			String.join("-", couple.stream().map(Object::toString).collect(Collectors.toList()))
-		).collect(Collectors.toMap(key -> key, value -> 0, (x, y) -> y, LinkedHashMap::new));
-		return extractedNumberPairCountersMap;
+	//Statistiche per numero ricavate in un unico passaggio sullo storico: conteggio estrazioni, posizione della
+	//prima estrazione, conteggio assenze consecutive e record di assenze consecutive
+	private int[][] computeNumberStats() {
+		int[] extractedNumberCounters = new int[NUMBERS.size() + 1];
+		int[] firstExtractionPositions = new int[NUMBERS.size() + 1];
+		int[] counterOfAbsencesFromCompetitions = new int[NUMBERS.size() + 1];
+		int[] absencesRecordFromCompetitions = new int[NUMBERS.size() + 1];
+		boolean[] extractedNumbers = new boolean[NUMBERS.size() + 1];
+		int position = 0;
+		for (List<Integer> extractedCombo : new TreeMap<>(allWinningCombos).values()) {
+			Arrays.fill(extractedNumbers, false);
+			for (Integer number : extractedCombo) {
+				if (extractedNumberCounters[number]++ == 0) {
+					firstExtractionPositions[number] = position;
+				}
+				extractedNumbers[number] = true;
+				position++;
+			}
+			for (int number = 1; number <= NUMBERS.size(); number++) {
+				if (extractedNumbers[number]) {
+					counterOfAbsencesFromCompetitions[number] = 0;
+				} else if (++counterOfAbsencesFromCompetitions[number] > absencesRecordFromCompetitions[number]) {
+					absencesRecordFromCompetitions[number] = counterOfAbsencesFromCompetitions[number];
+				}
+			}
+		}
+		return new int[][] {
+			extractedNumberCounters,
+			firstExtractionPositions,
+			counterOfAbsencesFromCompetitions,
+			absencesRecordFromCompetitions
+		};
+	}
+
+	private int[] computeMultipleNumberCounters(int groupSize) {
+		int[] counters = new int[groupSize == 2 ? PAIR_COUNT : TRIPLE_COUNT];
+		int[] extractedNumbers = new int[6];
+		for (List<Integer> extractedCombo : allWinningCombos.values()) {
+			analyzeMultipleNumber(
+				groupSize == 2 ? counters : null,
+				groupSize == 3 ? counters : null,
+				extractedCombo,
+				extractedNumbers
+			);
+		}
+		return counters;
 	}
 
-	private Map<String, Integer> buildExtractedNumberTripleCountersMap() {
-		ComboHandler comboHandler = new ComboHandler(SEStats.NUMBERS, 3);
-		Collection<List<Integer>> allTriples = comboHandler.find(LongStream.range(0, comboHandler.getSizeAsLong()).boxed().collect(Collectors.toList()), true).values();
-		Map<String, Integer> extractedNumberPairCountersMap = allTriples.stream().map(couple ->
-			String.join("-", couple.stream().map(Object::toString).collect(Collectors.toList()))
-		).collect(Collectors.toMap(key -> key, value -> 0, (x, y) -> y, LinkedHashMap::new));
-		return extractedNumberPairCountersMap;
+	private int[] computeExtractedNumberRank() {
+		int[] extractedNumberCounters = numberStats.get()[0];
+		int[] firstExtractionPositions = numberStats.get()[1];
+		return sortNumbers(
+			number -> extractedNumberCounters[number] > 0,
+			(numberOne, numberTwo) -> {
+				int result = Integer.compare(extractedNumberCounters[numberTwo], extractedNumberCounters[numberOne]);
+				return result != 0 ? result : Integer.compare(firstExtractionPositions[numberOne], firstExtractionPositions[numberTwo]);
+			}
+		);
 	}
 
-	private void loadStats() {
-		Map<String, Integer> extractedNumberPairCountersMap = buildExtractedNumberPairCountersMap();
-		Map<String, Integer> extractedNumberTripleCountersMap = buildExtractedNumberTripleCountersMap();
-		Map<String, Integer> extractedNumberCountersMap = new LinkedHashMap<>();
-		Map<String, Integer> counterOfAbsencesFromCompetitionsMap = new LinkedHashMap<>();
-		Map<String, Integer> absencesRecordFromCompetitionsMap = new LinkedHashMap<>();
-		NUMBERS.forEach(number -> {
-			counterOfAbsencesFromCompetitionsMap.put(number.toString(), 0);
-			absencesRecordFromCompetitionsMap.put(number.toString(), 0);
-		});
-		new TreeMap<>(allWinningCombos).entrySet().forEach(dateAndExtractedCombo -> {
-			List<Integer> extractedCombo = dateAndExtractedCombo.getValue();
-			extractedCombo.stream().forEach(number -> {
-				Integer counter = extractedNumberCountersMap.computeIfAbsent(number.toString(), key -> 0);
-				extractedNumberCountersMap.put(number.toString(), ++counter);
-			});
-			analyzeMultipleNumber(extractedNumberPairCountersMap, extractedCombo, 2);
-			analyzeMultipleNumber(extractedNumberTripleCountersMap, extractedCombo, 3);
-			extractedCombo.stream().forEach(extractedNumber -> {
-				counterOfAbsencesFromCompetitionsMap.put(String.valueOf(extractedNumber), 0);
-			});
-			counterOfAbsencesFromCompetitionsMap.entrySet().stream()
-			.filter(entry -> !extractedCombo.contains(Integer.valueOf(entry.getKey())))
-			.forEach(entry -> {
-				Integer latestMaxCounter = entry.getValue() + 1;
-				entry.setValue(latestMaxCounter);
-				Integer maxCounter = absencesRecordFromCompetitionsMap.get(entry.getKey());
-				if (maxCounter == null || maxCounter < latestMaxCounter) {
-					absencesRecordFromCompetitionsMap.put(entry.getKey(), latestMaxCounter);
-				}
-			});
-		});
+	private int[] computeCounterOfAbsencesFromCompetitionsRank() {
+		int[] counterOfAbsencesFromCompetitions = numberStats.get()[2];
+		return sortNumbers(
+			number -> true,
+			(numberOne, numberTwo) -> {
+				int result = Integer.compare(counterOfAbsencesFromCompetitions[numberTwo], counterOfAbsencesFromCompetitions[numberOne]);
+				return result != 0 ? result : Integer.compare(numberOne, numberTwo);
+			}
+		);
+	}
 
-		Comparator<Map.Entry<?, Integer>> integerComparator = (c1, c2) -> c1.getValue().compareTo(c2.getValue());
-		Comparator<Map.Entry<String, Integer>> doubleIntegerComparator = (itemOne, itemTwo) ->
-		(itemOne.getValue() < itemTwo.getValue()) ? -1 :
-			(itemOne.getValue().compareTo(itemTwo.getValue()) == 0) ?
-				Integer.valueOf(itemOne.getKey()).compareTo(Integer.valueOf(itemTwo.getKey())) :
-				1;
-		Comparator<Map.Entry<String, Integer>> doubleIntegerComparatorReversed = (itemOne, itemTwo) ->
-		(itemOne.getValue() < itemTwo.getValue()) ? 1 :
-			(itemOne.getValue().compareTo(itemTwo.getValue()) == 0) ?
-				Integer.valueOf(itemOne.getKey()).compareTo(Integer.valueOf(itemTwo.getKey())) :
-				-1;
-
-		Comparator<Map.Entry<String, Double>> integerDoubleComparator= (itemOne, itemTwo) -> {
-			return (itemOne.getValue() < itemTwo.getValue()) ? -1 :
-				(itemOne.getValue().compareTo(itemTwo.getValue()) == 0) ?
-					Integer.valueOf(itemOne.getKey()).compareTo(Integer.valueOf(itemTwo.getKey())) :
-					1;
-		};
-		extractedNumberTripleCounters = extractedNumberTripleCountersMap.entrySet().stream().sorted(integerComparator.reversed()).collect(Collectors.toList());
-		extractedNumberPairCounters = extractedNumberPairCountersMap.entrySet().stream().sorted(integerComparator.reversed()).collect(Collectors.toList());
-		//extractedNumberPairCounters.stream().forEach(entry -> LogUtils.INSTANCE.logInfo(String.join("\t", Arrays.asList(entry.getKey().split("-"))) + "\t" + entry.getValue()));
-		extractedNumberCounters = extractedNumberCountersMap.entrySet().stream().sorted(integerComparator.reversed()).collect(Collectors.toList());
-		//extractedNumberCounters.stream().forEach(entry -> LogUtils.INSTANCE.logInfo(String.join("\t", Arrays.asList(entry.getKey().split("-"))) + "\t" + entry.getValue()));
-		Map<Integer, Integer> extractedNumberFromMostExtractedCoupleMap = new LinkedHashMap<>();
-		extractedNumberPairCounters.stream().forEach(entry -> {
-			for (Integer number : Arrays.stream(entry.getKey().split("-")).map(Integer::parseInt).collect(Collectors.toList())) {
-				Integer counter = extractedNumberFromMostExtractedCoupleMap.computeIfAbsent(number, key -> 0);
-				extractedNumberFromMostExtractedCoupleMap.put(number, counter + entry.getValue());
+	private int[] computeAbsencesRecordFromCompetitionsRank() {
+		int[] absencesRecordFromCompetitions = numberStats.get()[3];
+		return sortNumbers(
+			number -> true,
+			(numberOne, numberTwo) -> {
+				int result = Integer.compare(absencesRecordFromCompetitions[numberTwo], absencesRecordFromCompetitions[numberOne]);
+				return result != 0 ? result : Integer.compare(numberTwo, numberOne);
 			}
-		});
-		extractedNumberCountersFromMostExtractedCouple =
-			extractedNumberFromMostExtractedCoupleMap.entrySet().stream().sorted(integerComparator.reversed()).collect(Collectors.toList());
+		);
+	}
 
-		Map<Integer, Integer> extractedNumberFromMostExtractedTripleMap = new LinkedHashMap<>();
-		extractedNumberTripleCounters.stream().forEach(entry -> {
-			for (Integer number : Arrays.stream(entry.getKey().split("-")).map(Integer::parseInt).collect(Collectors.toList())) {
-				Integer counter = extractedNumberFromMostExtractedTripleMap.computeIfAbsent(number, key -> 0);
-				extractedNumberFromMostExtractedTripleMap.put(number, counter + entry.getValue());
+	private int[] computeDistanceFromAbsenceRecordRank() {
+		//A parita' di distanza l'ordine e' quello della classifica dei ritardatari
+		int[] counterOfAbsencesFromCompetitionsRank = this.counterOfAbsencesFromCompetitionsRank.get();
+		int[] positionsInCounterOfAbsencesRank = new int[NUMBERS.size() + 1];
+		for (int i = 0; i < counterOfAbsencesFromCompetitionsRank.length; i++) {
+			positionsInCounterOfAbsencesRank[counterOfAbsencesFromCompetitionsRank[i]] = i;
+		}
+		return sortNumbers(
+			number -> true,
+			(numberOne, numberTwo) -> {
+				int result = Integer.compare(computeDistanceFromAbsenceRecord(numberOne), computeDistanceFromAbsenceRecord(numberTwo));
+				return result != 0 ? result : Integer.compare(positionsInCounterOfAbsencesRank[numberOne], positionsInCounterOfAbsencesRank[numberTwo]);
 			}
-		});
-		extractedNumberCountersFromMostExtractedTriple =
-				extractedNumberFromMostExtractedTripleMap.entrySet().stream().sorted(integerComparator.reversed()).collect(Collectors.toList());
-
-		counterOfAbsencesFromCompetitions =
-			counterOfAbsencesFromCompetitionsMap.entrySet().stream().sorted(doubleIntegerComparatorReversed).collect(Collectors.toList());
-		absencesRecordFromCompetitions =
-			absencesRecordFromCompetitionsMap.entrySet().stream().sorted(doubleIntegerComparator.reversed()).collect(Collectors.toList());
-		Map<String, Integer> distanceFromAbsenceRecordMap = new LinkedHashMap<>();
-		Map<String, Double> distanceFromAbsenceRecordPercentageMap = new LinkedHashMap<>();
-		counterOfAbsencesFromCompetitions.stream().forEach(entry -> {
-			Integer absenceRecord = absencesRecordFromCompetitionsMap.get(entry.getKey());
-			Integer distanceFromRecord = entry.getValue() - absenceRecord;
-			distanceFromAbsenceRecordMap.put(entry.getKey(), distanceFromRecord);
-			distanceFromAbsenceRecordPercentageMap.put(entry.getKey(), (distanceFromRecord * 100) / (double)absenceRecord);
-		});
-		distanceFromAbsenceRecord = distanceFromAbsenceRecordMap.entrySet().stream().sorted(integerComparator).collect(Collectors.toList());
-		distanceFromAbsenceRecordPercentage =
-			distanceFromAbsenceRecordPercentageMap.entrySet().stream().sorted(integerDoubleComparator).collect(Collectors.toList());
+		);
+	}
+
+	private int[] computeDistanceFromAbsenceRecordPercentageRank() {
+		return sortNumbers(
+			number -> true,
+			(numberOne, numberTwo) -> {
+				int result = Double.compare(computeDistanceFromAbsenceRecordPercentage(numberOne), computeDistanceFromAbsenceRecordPercentage(numberTwo));
+				return result != 0 ? result : Integer.compare(numberOne, numberTwo);
+			}
+		);
+	}
+
+	private int computeDistanceFromAbsenceRecord(int number) {
+		return numberStats.get()[2][number] - numberStats.get()[3][number];
+	}
+
+	private double computeDistanceFromAbsenceRecordPercentage(int number) {
+		return (computeDistanceFromAbsenceRecord(number) * 100) / (double)numberStats.get()[3][number];
+	}
+
+	private int[] sortNumbers(IntPredicate filter, Comparator<Integer> comparator) {
+		return NUMBERS.stream().filter(filter::test).sorted(comparator).mapToInt(Integer::intValue).toArray();
 	}
 
-	private void analyzeMultipleNumber(
-		Map<String, Integer> multipleNumbersCountersMap,
+	static void analyzeMultipleNumber(
+		int[] pairCounters,
+		int[] tripleCounters,
 		List<Integer> extractedCombo,
-		int size
+		int[] extractedNumbers
 	) {
-		ComboHandler comboHandler = new ComboHandler(extractedCombo, size);
-		Collection<List<Integer>> allCouples = comboHandler.find(LongStream.range(0, comboHandler.getSizeAsLong())
-			.boxed().collect(Collectors.toList()), true).values();
-		List<String> multiplceNumbersCounters = allCouples.stream().map(couple ->
-			String.join("-", couple.stream().map(Object::toString).collect(Collectors.toList()))
-		).collect(Collectors.toList());
-		for (String item : multiplceNumbersCounters) {
-			multipleNumbersCountersMap.put(item, multipleNumbersCountersMap.get(item) + 1);
+		analyzeMultipleNumber(pairCounters, tripleCounters, extractedCombo, extractedNumbers, 1);
+	}
+
+	static void analyzeMultipleNumber(
+		int[] pairCounters,
+		int[] tripleCounters,
+		List<Integer> extractedCombo,
+		int[] extractedNumbers,
+		int increment
+	) {
+		for (int i = 0; i < extractedNumbers.length; i++) {
+			extractedNumbers[i] = extractedCombo.get(i);
+		}
+		Arrays.sort(extractedNumbers);
+		for (int i = 0; i < extractedNumbers.length; i++) {
+			for (int j = i + 1; j < extractedNumbers.length; j++) {
+				if (pairCounters != null) {
+					pairCounters[pairRank(extractedNumbers[i], extractedNumbers[j])] += increment;
+				}
+				if (tripleCounters != null) {
+					for (int k = j + 1; k < extractedNumbers.length; k++) {
+						tripleCounters[tripleRank(extractedNumbers[i], extractedNumbers[j], extractedNumbers[k])] += increment;
+					}
+				}
+			}
+		}
+	}
+
+	//Il rango e' quello lessicografico: a parita' di conteggio l'ordine e' quello delle combinazioni generate dal ComboHandler
+	static int pairRank(int firstNumber, int secondNumber) {
+		int i = firstNumber - 1;
+		int j = secondNumber - 1;
+		return PAIR_COUNT - BINOMIALS[90 - i][2] + (j - i - 1);
+	}
+
+	static int tripleRank(int firstNumber, int secondNumber, int thirdNumber) {
+		int i = firstNumber - 1;
+		int j = secondNumber - 1;
+		int k = thirdNumber - 1;
+		return TRIPLE_COUNT - BINOMIALS[90 - i][3] +
+			BINOMIALS[90 - i - 1][2] - BINOMIALS[90 - j][2] +
+			(k - j - 1);
+	}
+
+	//Ordina i ranghi per conteggio decrescente e, a parita' di conteggio, per rango crescente.
+	//Se limit e' inferiore al numero di ranghi viene eseguito un ordinamento parziale tramite heap
+	static int[] rankByCounters(int[] counters, int limit) {
+		limit = Math.min(limit, counters.length);
+		long[] keys;
+		if (limit == counters.length) {
+			keys = new long[counters.length];
+			for (int rank = 0; rank < counters.length; rank++) {
+				keys[rank] = toSortKey(counters[rank], rank);
+			}
+			Arrays.sort(keys);
+		} else {
+			//Max-heap delle limit chiavi minori
+			keys = new long[limit];
+			int heapSize = 0;
+			for (int rank = 0; rank < counters.length; rank++) {
+				long key = toSortKey(counters[rank], rank);
+				if (heapSize < limit) {
+					int child = heapSize++;
+					keys[child] = key;
+					while (child > 0 && keys[(child - 1) >>> 1] < keys[child]) {
+						swap(keys, child, child = (child - 1) >>> 1);
+					}
+				} else if (limit > 0 && key < keys[0]) {
+					keys[0] = key;
+					int parent = 0;
+					int child;
+					while ((child = (parent << 1) + 1) < heapSize) {
+						if (child + 1 < heapSize && keys[child + 1] > keys[child]) {
+							child++;
+						}
+						if (keys[parent] >= keys[child]) {
+							break;
+						}
+						swap(keys, parent, parent = child);
+					}
+				}
+			}
+			Arrays.sort(keys, 0, heapSize);
+		}
+		int[] ranks = new int[limit];
+		for (int i = 0; i < limit; i++) {
+			ranks[i] = (int)keys[i];
 		}
+		return ranks;
+	}
+
+	private static long toSortKey(int counter, int rank) {
+		return ((long)(Integer.MAX_VALUE - counter) << 32) | rank;
+	}
+
+	private static void swap(long[] keys, int indexOne, int indexTwo) {
+		long temp = keys[indexOne];
+		keys[indexOne] = keys[indexTwo];
+		keys[indexTwo] = temp;
+	}
+
+	//Somma per ogni numero i conteggi delle coppie (o triplette) che lo contengono: a parita' di somma
+	//l'ordine e' quello in cui il numero compare per la prima volta nella classifica delle coppie (o triplette)
+	static int[][] toNumberCounters(int[] counters, byte[] numbersOfRanks) {
+		int groupSize = numbersOfRanks.length / counters.length;
+		long[] totals = new long[NUMBERS.size() + 1];
+		long[] firstPositionKeys = new long[NUMBERS.size() + 1];
+		Arrays.fill(firstPositionKeys, Long.MAX_VALUE);
+		for (int rank = 0; rank < counters.length; rank++) {
+			long key = toSortKey(counters[rank], rank);
+			for (int i = rank * groupSize; i < (rank + 1) * groupSize; i++) {
+				int number = numbersOfRanks[i];
+				totals[number] += counters[rank];
+				if (key < firstPositionKeys[number]) {
+					firstPositionKeys[number] = key;
+				}
+			}
+		}
+		int[] rank = NUMBERS.stream().sorted((numberOne, numberTwo) -> {
+			int result = Long.compare(totals[numberTwo], totals[numberOne]);
+			return result != 0 ? result : Long.compare(firstPositionKeys[numberOne], firstPositionKeys[numberTwo]);
+		}).mapToInt(Integer::intValue).toArray();
+		return new int[][] {rank, Arrays.stream(totals).mapToInt(total -> (int)total).toArray()};
+	}
+
+	private static byte[] buildNumbersOfRanks(int groupSize) {
+		byte[] numbersOfRanks = new byte[BINOMIALS[NUMBERS.size()][groupSize] * groupSize];
+		int[] indexes = new int[groupSize];
+		for (int i = 0; i < groupSize; i++) {
+			indexes[i] = i;
+		}
+		int position = 0;
+		do {
+			for (int index : indexes) {
+				numbersOfRanks[position++] = (byte)(index + 1);
+			}
+		} while (nextLexicographic(indexes, NUMBERS.size()));
+		return numbersOfRanks;
+	}
+
+	private static boolean nextLexicographic(int[] indexes, int numbersCount) {
+		for (int i = indexes.length - 1; i >= 0; i--) {
+			if (indexes[i] < numbersCount - (indexes.length - i)) {
+				++indexes[i];
+				for (int j = i + 1; j < indexes.length; j++) {
+					indexes[j] = indexes[j - 1] + 1;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int[][] buildBinomials(int maxNumbersCount, int maxGroupSize) {
+		int[][] binomials = new int[maxNumbersCount + 1][maxGroupSize + 1];
+		for (int n = 0; n <= maxNumbersCount; n++) {
+			binomials[n][0] = 1;
+			for (int k = 1; k <= Math.min(n, maxGroupSize); k++) {
+				binomials[n][k] = binomials[n - 1][k - 1] + (k <= n - 1 ? binomials[n - 1][k] : 0);
+			}
+		}
+		return binomials;
 	}
 
 	public Date getLatestExtractionDate() {
@@ -377,91 +644,117 @@ public class SEStats {
 	}
 
 	public List<Integer> getExtractedNumberFromMostExtractedCoupleRank() {
-		return extractedNumberCountersFromMostExtractedCouple.stream().map(entry -> entry.getKey()).collect(Collectors.toList());
+		return toList(extractedNumberCountersFromMostExtractedCouple.get()[0], false);
 	}
 
 	public List<Integer> getExtractedNumberFromMostExtractedCoupleRankReversed() {
-		return toReversed(getExtractedNumberFromMostExtractedCoupleRank());
+		return toList(extractedNumberCountersFromMostExtractedCouple.get()[0], true);
 	}
 
 	public List<Integer> getExtractedNumberFromMostExtractedTripleRank() {
-		return extractedNumberCountersFromMostExtractedTriple.stream().map(entry -> entry.getKey()).collect(Collectors.toList());
+		return toList(extractedNumberCountersFromMostExtractedTriple.get()[0], false);
 	}
 
 	public List<Integer> getExtractedNumberFromMostExtractedTripleRankReversed() {
-		return toReversed(getExtractedNumberFromMostExtractedTripleRank());
+		return toList(extractedNumberCountersFromMostExtractedTriple.get()[0], true);
+	}
+
+	public List<List<Integer>> getMostExtractedCoupleRank(int limit) {
+		return toCombos(rankByCounters(extractedNumberPairCounters.get(), limit), PAIRS, 2);
+	}
+
+	public List<List<Integer>> getMostExtractedTripleRank(int limit) {
+		return toCombos(rankByCounters(extractedNumberTripleCounters.get(), limit), TRIPLES, 3);
+	}
+
+	private List<List<Integer>> toCombos(int[] ranks, byte[] numbersOfRanks, int groupSize) {
+		List<List<Integer>> combos = new ArrayList<>(ranks.length);
+		for (int rank : ranks) {
+			List<Integer> combo = new ArrayList<>(groupSize);
+			for (int i = rank * groupSize; i < (rank + 1) * groupSize; i++) {
+				combo.add((int)numbersOfRanks[i]);
+			}
+			combos.add(combo);
+		}
+		return combos;
 	}
 
 	public List<Integer> getMostAbsentNumbersRank() {
-		return counterOfAbsencesFromCompetitions.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return getCounterOfAbsencesFromCompetitionsRank();
 	}
 
 	public List<Integer> getMostAbsentNumbersRankReversed() {
-		return toReversed(getMostAbsentNumbersRank());
+		return getCounterOfAbsencesFromCompetitionsRankReversed();
 	}
 
 	public List<Integer> getExtractedNumberRank() {
-		return extractedNumberCounters.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return toList(extractedNumberRank.get(), false);
 	}
 
 	public List<Integer> getExtractedNumberRankReversed() {
-		return toReversed(getExtractedNumberRank());
+		return toList(extractedNumberRank.get(), true);
 	}
 
 	public List<Integer> getCounterOfAbsencesFromCompetitionsRank() {
-		return counterOfAbsencesFromCompetitions.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return toList(counterOfAbsencesFromCompetitionsRank.get(), false);
 	}
 
 	public List<Integer> getCounterOfAbsencesFromCompetitionsRankReversed() {
-		return toReversed(getCounterOfAbsencesFromCompetitionsRank());
+		return toList(counterOfAbsencesFromCompetitionsRank.get(), true);
 	}
 
 	public List<Integer> getDistanceFromAbsenceRecordRank() {
-		return distanceFromAbsenceRecord.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return toList(distanceFromAbsenceRecordRank.get(), false);
 	}
 
 	public List<Integer> getDistanceFromAbsenceRecordRankReversed() {
-		return toReversed(getDistanceFromAbsenceRecordRank());
+		return toList(distanceFromAbsenceRecordRank.get(), true);
 	}
 
 	public List<Integer> getDistanceFromAbsenceRecordPercentageRank() {
-		return distanceFromAbsenceRecordPercentage.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return toList(distanceFromAbsenceRecordPercentageRank.get(), false);
 	}
 
 	public List<Integer> getDistanceFromAbsenceRecordPercentageRankReversed() {
-		return toReversed(getDistanceFromAbsenceRecordPercentageRank());
+		return toList(distanceFromAbsenceRecordPercentageRank.get(), true);
 	}
 
 	public List<Integer> getAbsencesRecordFromCompetitionsRank() {
-		return absencesRecordFromCompetitions.stream().map(entry -> Integer.parseInt(entry.getKey())).collect(Collectors.toList());
+		return toList(absencesRecordFromCompetitionsRank.get(), false);
 	}
 
 	public List<Integer> getAbsencesRecordFromCompetitionsRankReversed() {
-		return toReversed(getAbsencesRecordFromCompetitionsRank());
+		return toList(absencesRecordFromCompetitionsRank.get(), true);
+	}
+
+	public Integer getExtractedNumberCounterFor(Object number) {
+		return getStatFor(numberStats.get()[0], number);
 	}
 
 	public Integer getCounterOfAbsencesFromCompetitionsFor(Object number) {
-		return getStatFor(counterOfAbsencesFromCompetitions, number);
+		return getStatFor(numberStats.get()[2], number);
 	}
 
 	public Integer getAbsenceRecordFromCompetitionsFor(Object number) {
-		return getStatFor(absencesRecordFromCompetitions, number);
+		return getStatFor(numberStats.get()[3], number);
 	}
 
 	public Integer getExtractedNumberCountersFromMostExtractedCoupleFor(Object number) {
-		return getStatFor(extractedNumberCountersFromMostExtractedCouple, number);
+		return getStatFor(extractedNumberCountersFromMostExtractedCouple.get()[1], number);
 	}
 
 	public Integer getExtractedNumberCountersFromMostExtractedTripleFor(Object number) {
-		return getStatFor(extractedNumberCountersFromMostExtractedTriple, number);
+		return getStatFor(extractedNumberCountersFromMostExtractedTriple.get()[1], number);
 	}
 
 	public Integer getDistanceFromAbsenceRecordFor(Object number) {
-		return getStatFor(distanceFromAbsenceRecord, number);
+		Integer numberAsInt = toNumber(number);
+		return numberAsInt != null ? computeDistanceFromAbsenceRecord(numberAsInt) : null;
 	}
 
 	public Double getDistanceFromAbsenceRecordPercentageFor(Object number) {
-		return getStatFor(distanceFromAbsenceRecordPercentage, number);
+		Integer numberAsInt = toNumber(number);
+		return numberAsInt != null ? computeDistanceFromAbsenceRecordPercentage(numberAsInt) : null;
 	}
 
 	public Map<Date, List<Integer>> getAllWinningCombos() {
@@ -509,62 +802,125 @@ public class SEStats {
 		return getWinningComboWithJollyAndSuperstarOf(date).get(6);
 	}
 
-	private <N extends Number> List<N> toReversed(List<N> source) {
-		List<N> reversed = new ArrayList<>(source);
-		Collections.reverse(reversed);
-		return reversed;
+	//Vista in sola lettura della classifica: nessuna copia viene effettuata
+	private static List<Integer> toList(int[] rank, boolean reversed) {
+		return new AbstractList<Integer>() {
+
+			@Override
+			public Integer get(int index) {
+				return reversed ? rank[rank.length - 1 - index] : rank[index];
+			}
+
+			@Override
+			public int size() {
+				return rank.length;
+			}
+
+		};
 	}
 
-	private <N extends Number> N getStatFor(Collection<?> stats, Object numberObject) {
+	private Integer getStatFor(int[] stats, Object numberObject) {
+		Integer number = toNumber(numberObject);
+		return number != null ? stats[number] : null;
+	}
+
+	private static Integer toNumber(Object numberObject) {
 		Integer number = numberObject instanceof String ?
 			Integer.parseInt((String)numberObject) :
 			(Integer)numberObject;
-		for (Object obj : stats) {
-			Map.Entry<?, Integer> extractionData = (Map.Entry<?, Integer>)obj;
-			Object key = extractionData.getKey();
-			Integer iteratedNumber = key instanceof String ?
-				Integer.parseInt((String)key) :
-				(Integer)key;
-			if (iteratedNumber.equals(number)) {
-				return (N)extractionData.getValue();
-			}
-		}
-		return null;
+		return number >= 1 && number <= NUMBERS.size() ? number : null;
 	}
 
 	public Map<Date, List<Integer>> getAllWinningCombosWithJollyAndSuperstar() {
 		return allWinningCombosWithJollyAndSuperstar;
 	}
-
 	public Map<String, Integer> checkFor(LocalDate extractionDate, Supplier<Iterator<List<Integer>>> systemIteratorSupplier) {
+		return checkFor(extractionDate, toComboScanner(systemIteratorSupplier));
+	}
+
+	public Map<String, Integer> checkFor(LocalDate extractionDate, Storage storage) {
+		return checkFor(extractionDate, storage::forEach);
+	}
+
+	private Map<String, Integer> checkFor(LocalDate extractionDate, Consumer<Storage.IntComboConsumer> systemScanner) {
 		List<Integer> winningCombo = getWinningComboOf(extractionDate);
 		Map<String, Integer> results = new TreeMap<>();
 		if (winningCombo == null) {
 			return results;
 		}
 		Integer jolly = getJollyOf(extractionDate);
-		Iterator<List<Integer>> systemIterator = systemIteratorSupplier.get();
-		while (systemIterator.hasNext()) {
-			List<Integer> currentCombo = systemIterator.next();
-			Number hit = 0;
-			for (Integer currentNumber : currentCombo) {
-				if (winningCombo.contains(currentNumber)) {
-					hit = hit.intValue() + 1;
-				}
-			}
+		boolean[] winningNumbers = toLookupTable(winningCombo);
+		systemScanner.accept(currentCombo -> {
+			Number hit = countHits(currentCombo, winningNumbers);
 			if (hit.intValue() > 1) {
 				if (hit.intValue() == Premium.TYPE_FIVE.intValue()) {
-					if (currentCombo.contains(jolly)) {
+					if (contains(currentCombo, jolly)) {
 						hit = Premium.TYPE_FIVE_PLUS;
 					}
 				}
 				String premiumLabel = Premium.toLabel(hit);
 				results.put(premiumLabel, results.computeIfAbsent(premiumLabel, label -> 0) + 1);
 			}
-		}
+		});
 		return results;
 	}
 
+	private static Consumer<Storage.IntComboConsumer> toComboScanner(Supplier<Iterator<List<Integer>>> systemIteratorSupplier) {
+		return action -> {
+			Iterator<List<Integer>> systemIterator = systemIteratorSupplier.get();
+			int[] combo = new int[0];
+			while (systemIterator.hasNext()) {
+				List<Integer> currentCombo = systemIterator.next();
+				if (combo.length != currentCombo.size()) {
+					combo = new int[currentCombo.size()];
+				}
+				for (int i = 0; i < combo.length; i++) {
+					combo[i] = currentCombo.get(i);
+				}
+				action.accept(combo);
+			}
+		};
+	}
+
+	private static boolean[] toLookupTable(List<Integer> numbers) {
+		boolean[] lookupTable = new boolean[NUMBERS.size() + 1];
+		for (Integer number : numbers) {
+			if (number != null && number >= 0 && number < lookupTable.length) {
+				lookupTable[number] = true;
+			}
+		}
+		return lookupTable;
+	}
+
+	private static int countHits(int[] combo, boolean[] winningNumbers) {
+		int hit = 0;
+		for (int number : combo) {
+			if (number >= 0 && number < winningNumbers.length && winningNumbers[number]) {
+				hit++;
+			}
+		}
+		return hit;
+	}
+
+	private static boolean contains(int[] combo, Integer number) {
+		if (number != null) {
+			for (int currentNumber : combo) {
+				if (currentNumber == number) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<Integer> toList(int[] combo) {
+		List<Integer> comboAsList = new ArrayList<>(combo.length);
+		for (int number : combo) {
+			comboAsList.add(number);
+		}
+		return comboAsList;
+	}
+
 	public Map<String, Object> checkQuality(Supplier<Iterator<List<Integer>>> systemIteratorSupplier, Number[]... premiums) {
 		return checkQuality(systemIteratorSupplier, startDate, endDate, premiums);
 	}
@@ -577,11 +933,41 @@ public class SEStats {
 		return checkQuality(systemIteratorSupplier, startDate, endDate, premiums);
 	}
 
+	public Map<String, Object> checkQuality(Storage storage, Number[]... premiums) {
+		return checkQuality(storage, startDate, endDate, premiums);
+	}
+
+	public Map<String, Object> checkQualityFrom(Storage storage, Date startDate, Number[]... premiums) {
+		return checkQuality(storage, startDate, endDate, premiums);
+	}
+
+	public Map<String, Object> checkQualityTo(Storage storage, Date endDate, Number[]... premiums) {
+		return checkQuality(storage, startDate, endDate, premiums);
+	}
+
 	public Map<String, Object> checkQuality(
 		Supplier<Iterator<List<Integer>>> systemIteratorSupplier,
 		Date startDate,
 		Date endDate,
 		Number[]... premiumsFilters
+	) {
+		return checkQuality(toComboScanner(systemIteratorSupplier), startDate, endDate, premiumsFilters);
+	}
+
+	public Map<String, Object> checkQuality(
+		Storage storage,
+		Date startDate,
+		Date endDate,
+		Number[]... premiumsFilters
+	) {
+		return checkQuality(storage::forEach, startDate, endDate, premiumsFilters);
+	}
+
+	private Map<String, Object> checkQuality(
+		Consumer<Storage.IntComboConsumer> systemScanner,
+		Date startDate,
+		Date endDate,
+		Number[]... premiumsFilters
 	) {
 		List<Number> premiumsFilterList = new ArrayList<>();
 		List<Number> premiumsFilterListForReport = new ArrayList<>();
@@ -597,12 +983,9 @@ public class SEStats {
 		}
 
 		Map<String, Object> data = new LinkedHashMap<>();
-		Iterator<List<Integer>> systemItearator = systemIteratorSupplier.get();
-		long systemSize = 0;
-		while (systemItearator.hasNext()) {
-			systemItearator.next();
-			systemSize++;
-		}
+		long[] systemSizeWrapper = new long[1];
+		systemScanner.accept(combo -> systemSizeWrapper[0]++);
+		long systemSize = systemSizeWrapper[0];
 		Map<Map.Entry<Date, List<Integer>>, Map<Number, List<List<Integer>>>> winningsCombosData = new LinkedHashMap<>();
 		Map<Map.Entry<Date, List<Integer>>, Map<Number, List<List<Integer>>>> winningsCombosDataForReport = new LinkedHashMap<>();
 		List<Map.Entry<Date, List<Integer>>> allWinningCombosReversed = this.allWinningCombosWithJollyAndSuperstar.entrySet().stream().collect(Collectors.toList());
@@ -621,24 +1004,29 @@ public class SEStats {
 				Map<Number, List<List<Integer>>> winningCombosForExtractionForReport = new TreeMap<>(MathUtils.INSTANCE.numberComparator);
 				List<Integer> winningCombo = winningComboInfo.getValue();
 				Integer jolly = winningCombo.get(6);
-				systemItearator = systemIteratorSupplier.get();
-				while (systemItearator.hasNext()) {
-					List<Integer> currentCombo = systemItearator.next();
-					Number hit = (int)currentCombo.stream().filter(winningCombo.subList(0, 6)::contains).count();
+				boolean[] winningNumbers = toLookupTable(winningCombo.subList(0, 6));
+				systemScanner.accept(currentCombo -> {
+					Number hit = countHits(currentCombo, winningNumbers);
 					if (hit.intValue() > 1) {
 						if (hit.intValue() == Premium.TYPE_FIVE.intValue()) {
-							if (currentCombo.contains(jolly)) {
+							if (contains(currentCombo, jolly)) {
 								hit = Premium.TYPE_FIVE_PLUS;
 							}
 						}
-						if (premiumsFilterList.contains(hit)) {
-							winningCombosForExtraction.computeIfAbsent(hit, ht -> new ArrayList<>()).add(currentCombo);
-						}
-						if (premiumsFilterListForReport.contains(hit)) {
-							winningCombosForExtractionForReport.computeIfAbsent(hit, ht -> new ArrayList<>()).add(currentCombo);
+						boolean toBeCollected = premiumsFilterList.contains(hit);
+						boolean toBeReported = premiumsFilterListForReport.contains(hit);
+						if (toBeCollected || toBeReported) {
+							//La combinazione viene copiata solo se vincente perche' l'array viene riutilizzato
+							List<Integer> currentComboAsList = toList(currentCombo);
+							if (toBeCollected) {
+								winningCombosForExtraction.computeIfAbsent(hit, ht -> new ArrayList<>()).add(currentComboAsList);
+							}
+							if (toBeReported) {
+								winningCombosForExtractionForReport.computeIfAbsent(hit, ht -> new ArrayList<>()).add(currentComboAsList);
+							}
 						}
 					}
-				}
+				});
 				if (!winningCombosForExtraction.isEmpty()) {
 					winningsCombosData.put(new AbstractMap.SimpleEntry<>(winningComboInfo.getKey(), winningCombo), winningCombosForExtraction);
 				}
@@ -751,6 +1139,37 @@ public class SEStats {
 	}
 
 
+	private static class Memoized<T> implements Supplier<T> {
+		private final Supplier<T> computer;
+		private volatile T value;
+
+		Memoized(Supplier<T> computer) {
+			this.computer = computer;
+		}
+
+		@Override
+		public T get() {
+			T value = this.value;
+			if (value == null) {
+				synchronized (this) {
+					if ((value = this.value) == null) {
+						this.value = value = computer.get();
+					}
+				}
+			}
+			return value;
+		}
+
+		T getIfComputed() {
+			return value;
+		}
+
+		void init(T value) {
+			this.value = value;
+		}
+
+	}
+
 	private static interface DataLoader {
 
 		public boolean load() throws Throwable;
@@ -1009,6 +1428,94 @@ public class SEStats {
 		}
 	}
 
+	//Legge lo storico da un file CSV (data;n1;...;n6;jolly[;superstar]) o binario (vedi ToLocalFileDataStorer)
+	//indicato da un percorso o, se preceduto da 'classpath:', da una risorsa
+	private static class FromLocalFileDataLoader extends DataLoader.Abst {
+		static final String BINARY_FORMAT_MAGIC = "SEXH";
+		static final String CLASSPATH_PREFIX = "classpath:";
+
+		FromLocalFileDataLoader(Date startDate, Date endDate) {
+			super(startDate, endDate);
+		}
+
+		FromLocalFileDataLoader(
+			Date startDate,
+			Date endDate,
+			Map<Date, List<Integer>> allWinningCombos,
+			Map<Date, List<Integer>> allWinningCombosWithJollyAndSuperstar
+		) {
+			super(startDate, endDate, allWinningCombos, allWinningCombosWithJollyAndSuperstar);
+		}
+
+		@Override
+		public boolean load() throws Throwable {
+			try (InputStream inputStream = new BufferedInputStream(open(localFileDataLoaderPath))) {
+				byte[] magic = new byte[BINARY_FORMAT_MAGIC.length()];
+				inputStream.mark(magic.length);
+				int readBytes = inputStream.read(magic);
+				inputStream.reset();
+				if (readBytes == magic.length && BINARY_FORMAT_MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+					loadFromBinary(new DataInputStream(inputStream));
+				} else {
+					loadFromCSV(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+				}
+			}
+			return true;
+		}
+
+		private static InputStream open(String path) throws IOException {
+			if (path.startsWith(CLASSPATH_PREFIX)) {
+				InputStream inputStream = SEStats.class.getClassLoader().getResourceAsStream(path.substring(CLASSPATH_PREFIX.length()));
+				if (inputStream == null) {
+					throw new IOException("Resource " + path + " not found");
+				}
+				return inputStream;
+			}
+			return new FileInputStream(path);
+		}
+
+		private void loadFromBinary(DataInputStream inputStream) throws IOException {
+			inputStream.skipBytes(BINARY_FORMAT_MAGIC.length());
+			int extractionCount = inputStream.readInt();
+			for (int i = 0; i < extractionCount; i++) {
+				Date extractionDate = new Date(inputStream.readLong());
+				List<Integer> extractedComboWithJollyAndSuperstar = new ArrayList<>();
+				for (int numberCount = inputStream.readUnsignedByte(); numberCount > 0; numberCount--) {
+					extractedComboWithJollyAndSuperstar.add(inputStream.readUnsignedByte());
+				}
+				put(extractionDate, extractedComboWithJollyAndSuperstar);
+			}
+		}
+
+		private void loadFromCSV(BufferedReader reader) throws IOException, ParseException {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] values = line.split("[;,]");
+				List<Integer> extractedComboWithJollyAndSuperstar = new ArrayList<>();
+				for (int i = 1; i < values.length; i++) {
+					extractedComboWithJollyAndSuperstar.add(Integer.parseInt(values[i].trim()));
+				}
+				put(TimeUtils.getDefaultDateFormat().parse(values[0].trim()), extractedComboWithJollyAndSuperstar);
+			}
+		}
+
+		private void put(Date extractionDate, List<Integer> extractedComboWithJollyAndSuperstar) {
+			if (extractionDate.compareTo(startDate) >= 0 && extractionDate.compareTo(endDate) <= 0) {
+				List<Integer> extractedCombo = new ArrayList<>(extractedComboWithJollyAndSuperstar.subList(0, 6));
+				Collections.sort(extractedCombo);
+				allWinningCombos.put(extractionDate, extractedCombo);
+				List<Integer> sortedExtractedComboWithJollyAndSuperstar = new ArrayList<>(extractedCombo);
+				sortedExtractedComboWithJollyAndSuperstar.addAll(extractedComboWithJollyAndSuperstar.subList(6, extractedComboWithJollyAndSuperstar.size()));
+				allWinningCombosWithJollyAndSuperstar.put(extractionDate, sortedExtractedComboWithJollyAndSuperstar);
+			}
+		}
+
+	}
+
 	private class ToExcelDataStorerV1 implements DataStorer {
 
 		private String getFileName() {
@@ -1045,49 +1552,49 @@ public class SEStats {
 				sheet.setColumnWidth(0, 25 * 112);
 				sheet.setColumnWidth(1, 25 * 192);
 				template.createHeader(true, Arrays.asList("Numero", "Conteggio estrazioni"));
-				for (Map.Entry<String, Integer> extractionData : extractedNumberCounters) {
+				for (Integer number : getExtractedNumberRank()) {
 					template.addRow();
-					template.addCell(Integer.parseInt(extractionData.getKey()), "0");
-					template.addCell(extractionData.getValue(), "0");
+					template.addCell(number, "0");
+					template.addCell(getExtractedNumberCounterFor(number), "0");
 				}
 				sheet = template.getOrCreateSheet("Numeri più estratti per coppia", true);
 				sheet.setColumnWidth(0, 25 * 112);
 				sheet.setColumnWidth(1, 25 * 400);
 				template.createHeader(true, Arrays.asList("Numero", "Conteggio presenze nelle coppie più estratte"));
-				for (Map.Entry<Integer, Integer> extractionData : extractedNumberCountersFromMostExtractedCouple) {
+				for (Integer number : getExtractedNumberFromMostExtractedCoupleRank()) {
 					template.addRow();
-					template.addCell(extractionData.getKey(), "0");
-					template.addCell(extractionData.getValue(), "0");
+					template.addCell(number, "0");
+					template.addCell(getExtractedNumberCountersFromMostExtractedCoupleFor(number), "0");
 				}
 				sheet = template.getOrCreateSheet("Coppie più estratte", true);
 				sheet.setColumnWidth(0, 25 * 112);
 				sheet.setColumnWidth(1, 25 * 112);
 				sheet.setColumnWidth(2, 25 * 208);
 				template.createHeader(true, Arrays.asList("1° numero", "2° numero", "Conteggio estrazioni"));
-				for (Map.Entry<String, Integer> extractedNumberPairCounter : extractedNumberPairCounters) {
-					String[] numbers = extractedNumberPairCounter.getKey().split("-");
+				int[] extractedNumberPairCounters = SEStats.this.extractedNumberPairCounters.get();
+				for (int rank : rankByCounters(extractedNumberPairCounters, PAIR_COUNT)) {
 					template.addRow();
-					template.addCell(Integer.parseInt(numbers[0]), "0");
-					template.addCell(Integer.parseInt(numbers[1]), "0");
-					template.addCell(extractedNumberPairCounter.getValue(), "0");
+					template.addCell((int)PAIRS[rank * 2], "0");
+					template.addCell((int)PAIRS[rank * 2 + 1], "0");
+					template.addCell(extractedNumberPairCounters[rank], "0");
 				}
 				sheet = template.getOrCreateSheet("Numeri ritardatari", true);
 				sheet.setColumnWidth(0, 25 * 112);
 				sheet.setColumnWidth(1, 25 * 176);
 				template.createHeader(true, Arrays.asList("Numero", "Conteggio assenze"));
-				for (Map.Entry<String, Integer> extractionData : counterOfAbsencesFromCompetitions) {
+				for (Integer number : getCounterOfAbsencesFromCompetitionsRank()) {
 					template.addRow();
-					template.addCell(Integer.parseInt(extractionData.getKey()), "0");
-					template.addCell(extractionData.getValue(), "0");
+					template.addCell(number, "0");
+					template.addCell(getCounterOfAbsencesFromCompetitionsFor(number), "0");
 				}
 				sheet = template.getOrCreateSheet("Numeri più frequenti", true);
 				sheet.setColumnWidth(0, 25 * 112);
 				sheet.setColumnWidth(1, 25 * 256);
 				template.createHeader(true, Arrays.asList("Numero", "Conteggio assenze massime"));
-				for (Map.Entry<String, Integer> extractionData : absencesRecordFromCompetitions) {
+				for (Integer number : getAbsencesRecordFromCompetitionsRank()) {
 					template.addRow();
-					template.addCell(Integer.parseInt(extractionData.getKey()), "0");
-					template.addCell(extractionData.getValue(), "0");
+					template.addCell(number, "0");
+					template.addCell(getAbsenceRecordFromCompetitionsFor(number), "0");
 				}
 				sheet = template.getOrCreateSheet("Storico estrazioni", true);
 				sheet.setColumnWidth(0, 25 * 112);
@@ -1157,6 +1664,45 @@ public class SEStats {
 		}
 	}
 
+	//Scrive lo storico nel formato letto da FromLocalFileDataLoader: CSV oppure, se il file ha estensione .bin, binario
+	//(intestazione, numero di estrazioni e per ogni estrazione data in millisecondi, quantita' di numeri e numeri)
+	private static class ToLocalFileDataStorer implements DataStorer {
+		SEStats sEStats;
+		private ToLocalFileDataStorer(SEStats sEStats) {
+			this.sEStats = sEStats;
+		}
+
+		@Override
+		public boolean store() throws Throwable {
+			//In ordine cronologico
+			Map<Date, List<Integer>> allWinningCombosWithJollyAndSuperstar = new TreeMap<>(sEStats.allWinningCombosWithJollyAndSuperstar);
+			if (localFileDataStorerPath.endsWith(".bin")) {
+				try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(localFileDataStorerPath)))) {
+					outputStream.write(FromLocalFileDataLoader.BINARY_FORMAT_MAGIC.getBytes(StandardCharsets.US_ASCII));
+					outputStream.writeInt(allWinningCombosWithJollyAndSuperstar.size());
+					for (Map.Entry<Date, List<Integer>> extraction : allWinningCombosWithJollyAndSuperstar.entrySet()) {
+						outputStream.writeLong(extraction.getKey().getTime());
+						outputStream.writeByte(extraction.getValue().size());
+						for (Integer number : extraction.getValue()) {
+							outputStream.writeByte(number);
+						}
+					}
+				}
+			} else {
+				try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(localFileDataStorerPath), StandardCharsets.UTF_8))) {
+					writer.write("#data;n1;n2;n3;n4;n5;n6;jolly;superstar\n");
+					for (Map.Entry<Date, List<Integer>> extraction : allWinningCombosWithJollyAndSuperstar.entrySet()) {
+						writer.write(
+							TimeUtils.getDefaultDateFormat().format(extraction.getKey()) + ";" +
+							extraction.getValue().stream().map(Object::toString).collect(Collectors.joining(";")) + "\n"
+						);
+					}
+				}
+			}
+			return true;
+		}
+	}
+
 	private static class ToExcelDataStorerV2 implements DataStorer {
 		SEStats sEStats;
 		private ToExcelDataStorerV2(SEStats sEStats) {
@@ -1219,16 +1765,16 @@ public class SEStats {
 						"Distanza in % dal record di assenze consecutive"
 					)
 				).setHeight((short)1152);
-				for (Map.Entry<String, Integer> extractionData : sEStats.extractedNumberCounters) {
+				for (Integer number : sEStats.getExtractedNumberRank()) {
 					template.addRow();
-					template.addCell(Integer.parseInt(extractionData.getKey()), "0");
-					template.addCell(extractionData.getValue(), "0");
-					template.addCell(sEStats.getExtractedNumberCountersFromMostExtractedCoupleFor(extractionData.getKey()), "0");
-					template.addCell(sEStats.getExtractedNumberCountersFromMostExtractedTripleFor(extractionData.getKey()), "0");
-					template.addCell(sEStats.getCounterOfAbsencesFromCompetitionsFor(extractionData.getKey()), "0");
-					template.addCell(sEStats.getAbsenceRecordFromCompetitionsFor(extractionData.getKey()), "0");
-					template.addCell(sEStats.getDistanceFromAbsenceRecordFor(extractionData.getKey()), "0");
-					Double distanceFromAbsenceRecordPerc = sEStats.getDistanceFromAbsenceRecordPercentageFor(extractionData.getKey());
+					template.addCell(number, "0");
+					template.addCell(sEStats.getExtractedNumberCounterFor(number), "0");
+					template.addCell(sEStats.getExtractedNumberCountersFromMostExtractedCoupleFor(number), "0");
+					template.addCell(sEStats.getExtractedNumberCountersFromMostExtractedTripleFor(number), "0");
+					template.addCell(sEStats.getCounterOfAbsencesFromCompetitionsFor(number), "0");
+					template.addCell(sEStats.getAbsenceRecordFromCompetitionsFor(number), "0");
+					template.addCell(sEStats.getDistanceFromAbsenceRecordFor(number), "0");
+					Double distanceFromAbsenceRecordPerc = sEStats.getDistanceFromAbsenceRecordPercentageFor(number);
 					template.addCell(
 							distanceFromAbsenceRecordPerc /100
 					).setCellStyle(percentageNumberStyle);
@@ -1242,12 +1788,12 @@ public class SEStats {
 				sheet.setColumnWidth(1, 3640);
 				sheet.setColumnWidth(2,	3584);
 				template.createHeader(true, Arrays.asList("1° numero", "2° numero", "Conteggio estrazioni")).setHeight((short)576);
-				for (Map.Entry<String, Integer> extractedNumberPairCounter : sEStats.extractedNumberPairCounters) {
-					String[] numbers = extractedNumberPairCounter.getKey().split("-");
+				int[] extractedNumberPairCounters = sEStats.extractedNumberPairCounters.get();
+				for (int rank : rankByCounters(extractedNumberPairCounters, PAIR_COUNT)) {
 					template.addRow();
-					template.addCell(Integer.parseInt(numbers[0]), "0");
-					template.addCell(Integer.parseInt(numbers[1]), "0");
-					template.addCell(extractedNumberPairCounter.getValue(), "0");
+					template.addCell((int)PAIRS[rank * 2], "0");
+					template.addCell((int)PAIRS[rank * 2 + 1], "0");
+					template.addCell(extractedNumberPairCounters[rank], "0");
 				}
 				template.setAutoFilter();
 				sheet = template.getOrCreateSheet("Triplette più estratte", true);
@@ -1256,13 +1802,13 @@ public class SEStats {
 				sheet.setColumnWidth(2, 3640);
 				sheet.setColumnWidth(3,	3584);
 				template.createHeader(true, Arrays.asList("1° numero", "2° numero", "3° numero", "Conteggio estrazioni")).setHeight((short)576);
-				for (Map.Entry<String, Integer> extractedNumberTripleCounter : sEStats.extractedNumberTripleCounters) {
-					String[] numbers = extractedNumberTripleCounter.getKey().split("-");
+				int[] extractedNumberTripleCounters = sEStats.extractedNumberTripleCounters.get();
+				for (int rank : rankByCounters(extractedNumberTripleCounters, TRIPLE_COUNT)) {
 					template.addRow();
-					template.addCell(Integer.parseInt(numbers[0]), "0");
-					template.addCell(Integer.parseInt(numbers[1]), "0");
-					template.addCell(Integer.parseInt(numbers[2]), "0");
-					template.addCell(extractedNumberTripleCounter.getValue(), "0");
+					template.addCell((int)TRIPLES[rank * 3], "0");
+					template.addCell((int)TRIPLES[rank * 3 + 1], "0");
+					template.addCell((int)TRIPLES[rank * 3 + 2], "0");
+					template.addCell(extractedNumberTripleCounters[rank], "0");
 				}
 				template.setAutoFilter();
 				sheet = template.getOrCreateSheet("Storico estrazioni", true);
@@ -0,0 +1,251 @@
+package org.rg.game.lottery.engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+//Finestra mobile sullo storico delle estrazioni: quando la finestra avanza vengono aggiunte le estrazioni piu'
+//recenti e rimosse le piu' vecchie aggiornando in modo incrementale i contatori invece di ricalcolarli da zero
+public class SEStatsWindow {
+	private static final int POOL_MAX_SIZE;
+	private static final Deque<SEStatsWindow> POOL;
+
+	static {
+		POOL_MAX_SIZE = Integer.parseInt(System.getenv().getOrDefault("se-stats.sliding-window.pool-size", "4"));
+		POOL = new LinkedList<>();
+	}
+
+	private final SEStats source;
+	//Estrazioni in ordine cronologico
+	private final NavigableMap<Date, List<Integer>> history;
+	private final Deque<Map.Entry<Date, List<Integer>>> extractions;
+	private final int[] extractedNumberCounters;
+	//Posizioni (6 * indice estrazione + indice nella combinazione) in cui ogni numero e' stato estratto
+	private final LongQueue[] extractionPositions;
+	//Per ogni numero le assenze consecutive tra due estrazioni in ordine decrescente (coda monotona per il massimo
+	//scorrevole): ogni elemento contiene l'assenza nei 32 bit alti e l'indice dell'estrazione da cui inizia in quelli bassi
+	private final LongQueue[] absences;
+	private final int[] extractedNumberPairCounters;
+	private final int[] extractedNumbers;
+	private Date startDate;
+	private Date endDate;
+	private int oldestExtractionIndex;
+	private int nextExtractionIndex;
+
+	public SEStatsWindow(SEStats source) {
+		this.source = source;
+		this.history = ((NavigableMap<Date, List<Integer>>)source.getAllWinningCombos()).descendingMap();
+		this.extractions = new ArrayDeque<>();
+		this.extractedNumberCounters = new int[SEStats.NUMBERS.size() + 1];
+		this.extractionPositions = new LongQueue[SEStats.NUMBERS.size() + 1];
+		this.absences = new LongQueue[SEStats.NUMBERS.size() + 1];
+		for (int number = 1; number <= SEStats.NUMBERS.size(); number++) {
+			extractionPositions[number] = new LongQueue();
+			absences[number] = new LongQueue();
+		}
+		this.extractedNumberPairCounters = new int[SEStats.PAIR_COUNT];
+		this.extractedNumbers = new int[6];
+	}
+
+	static SEStats viewOf(SEStats source, Date startDate, Date endDate) {
+		SEStatsWindow window = acquire(source, startDate, endDate);
+		try {
+			return window.moveTo(startDate, endDate);
+		} finally {
+			release(window);
+		}
+	}
+
+	//Viene scelta la finestra che puo' raggiungere il periodo richiesto avanzando il meno possibile
+	private static SEStatsWindow acquire(SEStats source, Date startDate, Date endDate) {
+		synchronized (POOL) {
+			SEStatsWindow bestWindow = null;
+			long bestDistance = Long.MAX_VALUE;
+			Iterator<SEStatsWindow> windowIterator = POOL.iterator();
+			while (windowIterator.hasNext()) {
+				SEStatsWindow window = windowIterator.next();
+				if (window.source != source) {
+					windowIterator.remove();
+				} else if (window.canMoveTo(startDate, endDate)) {
+					long distance = (startDate.getTime() - window.startDate.getTime()) + (endDate.getTime() - window.endDate.getTime());
+					if (distance < bestDistance) {
+						bestWindow = window;
+						bestDistance = distance;
+					}
+				}
+			}
+			if (bestWindow != null) {
+				POOL.remove(bestWindow);
+				return bestWindow;
+			}
+		}
+		return new SEStatsWindow(source);
+	}
+
+	private static void release(SEStatsWindow window) {
+		synchronized (POOL) {
+			POOL.addLast(window);
+			while (POOL.size() > POOL_MAX_SIZE) {
+				POOL.removeFirst();
+			}
+		}
+	}
+
+	private boolean canMoveTo(Date startDate, Date endDate) {
+		return this.startDate != null && !endDate.before(startDate) &&
+			!startDate.before(this.startDate) && !endDate.before(this.endDate);
+	}
+
+	public synchronized SEStats moveTo(Date startDate, Date endDate) {
+		if (!canMoveTo(startDate, endDate)) {
+			reset();
+		}
+		while (!extractions.isEmpty() && extractions.peekFirst().getKey().before(startDate)) {
+			removeOldest();
+		}
+		if (!endDate.before(startDate)) {
+			Map<Date, List<Integer>> newExtractions = this.endDate == null || startDate.after(this.endDate) ?
+				history.subMap(startDate, true, endDate, true) :
+				history.subMap(this.endDate, false, endDate, true);
+			for (Map.Entry<Date, List<Integer>> extraction : newExtractions.entrySet()) {
+				addNewest(extraction);
+			}
+		}
+		this.startDate = startDate;
+		this.endDate = endDate;
+		//I contatori delle triplette (117.480 elementi) non vengono copiati in ogni vista: la vista li calcola sul proprio
+		//periodo solo se vengono richiesti
+		return new SEStats(source, startDate, endDate, toNumberStats(), extractedNumberPairCounters.clone(), null);
+	}
+
+	private void reset() {
+		extractions.clear();
+		Arrays.fill(extractedNumberCounters, 0);
+		for (int number = 1; number <= SEStats.NUMBERS.size(); number++) {
+			extractionPositions[number].clear();
+			absences[number].clear();
+		}
+		Arrays.fill(extractedNumberPairCounters, 0);
+		startDate = null;
+		endDate = null;
+		oldestExtractionIndex = nextExtractionIndex = 0;
+	}
+
+	private void addNewest(Map.Entry<Date, List<Integer>> extraction) {
+		int extractionIndex = nextExtractionIndex++;
+		List<Integer> extractedCombo = extraction.getValue();
+		for (int i = 0; i < extractedCombo.size(); i++) {
+			int number = extractedCombo.get(i);
+			extractedNumberCounters[number]++;
+			LongQueue positions = extractionPositions[number];
+			if (!positions.isEmpty()) {
+				int previousExtractionIndex = (int)(positions.peekLast() / 6);
+				long absence = ((long)(extractionIndex - previousExtractionIndex - 1) << 32) | previousExtractionIndex;
+				LongQueue numberAbsences = absences[number];
+				while (!numberAbsences.isEmpty() && (numberAbsences.peekLast() >>> 32) <= (absence >>> 32)) {
+					numberAbsences.removeLast();
+				}
+				numberAbsences.addLast(absence);
+			}
+			positions.addLast(6L * extractionIndex + i);
+		}
+		SEStats.analyzeMultipleNumber(extractedNumberPairCounters, null, extractedCombo, extractedNumbers, 1);
+		extractions.addLast(extraction);
+	}
+
+	private void removeOldest() {
+		int extractionIndex = oldestExtractionIndex++;
+		List<Integer> extractedCombo = extractions.removeFirst().getValue();
+		for (int number : extractedCombo) {
+			extractedNumberCounters[number]--;
+			extractionPositions[number].removeFirst();
+			LongQueue numberAbsences = absences[number];
+			if (!numberAbsences.isEmpty() && (int)numberAbsences.peekFirst() == extractionIndex) {
+				numberAbsences.removeFirst();
+			}
+		}
+		SEStats.analyzeMultipleNumber(extractedNumberPairCounters, null, extractedCombo, extractedNumbers, -1);
+	}
+
+	//Stesso formato di SEStats.computeNumberStats
+	private int[][] toNumberStats() {
+		int[] firstExtractionPositions = new int[SEStats.NUMBERS.size() + 1];
+		int[] counterOfAbsencesFromCompetitions = new int[SEStats.NUMBERS.size() + 1];
+		int[] absencesRecordFromCompetitions = new int[SEStats.NUMBERS.size() + 1];
+		int newestExtractionIndex = nextExtractionIndex - 1;
+		for (int number = 1; number <= SEStats.NUMBERS.size(); number++) {
+			LongQueue positions = extractionPositions[number];
+			if (positions.isEmpty()) {
+				counterOfAbsencesFromCompetitions[number] = absencesRecordFromCompetitions[number] = extractions.size();
+				continue;
+			}
+			firstExtractionPositions[number] = (int)(positions.peekFirst() - 6L * oldestExtractionIndex);
+			counterOfAbsencesFromCompetitions[number] = newestExtractionIndex - (int)(positions.peekLast() / 6);
+			int absencesRecord = Math.max(
+				(int)(positions.peekFirst() / 6) - oldestExtractionIndex,
+				counterOfAbsencesFromCompetitions[number]
+			);
+			if (!absences[number].isEmpty()) {
+				absencesRecord = Math.max(absencesRecord, (int)(absences[number].peekFirst() >>> 32));
+			}
+			absencesRecordFromCompetitions[number] = absencesRecord;
+		}
+		return new int[][] {
+			extractedNumberCounters.clone(),
+			firstExtractionPositions,
+			counterOfAbsencesFromCompetitions,
+			absencesRecordFromCompetitions
+		};
+	}
+
+	private static class LongQueue {
+		private long[] values = new long[16];
+		private int head;
+		private int size;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		long peekFirst() {
+			return values[head];
+		}
+
+		long peekLast() {
+			return values[(head + size - 1) & (values.length - 1)];
+		}
+
+		void addLast(long value) {
+			if (size == values.length) {
+				long[] newValues = new long[values.length << 1];
+				for (int i = 0; i < size; i++) {
+					newValues[i] = values[(head + i) & (values.length - 1)];
+				}
+				values = newValues;
+				head = 0;
+			}
+			values[(head + size++) & (values.length - 1)] = value;
+		}
+
+		void removeFirst() {
+			head = (head + 1) & (values.length - 1);
+			size--;
+		}
+
+		void removeLast() {
+			size--;
+		}
+
+		void clear() {
+			head = size = 0;
+		}
+
+	}
+
+}
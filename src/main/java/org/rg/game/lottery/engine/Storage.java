@@ -34,6 +34,10 @@ public interface Storage extends AutoCloseable {
 
 	boolean addLine();
 
+	default void flush() {
+
+	}
+
 	@Override
 	default void close() {
 
@@ -43,6 +47,37 @@ public interface Storage extends AutoCloseable {
 
 	public Iterator<List<Integer>> iterator();
 
+	//L'array passato al consumer viene riutilizzato per tutte le combinazioni e non deve essere conservato
+	default void forEach(IntComboConsumer action) {
+		Iterator<List<Integer>> comboIterator = iterator();
+		int[] combo = new int[0];
+		while (comboIterator.hasNext()) {
+			List<Integer> currentCombo = comboIterator.next();
+			if (combo.length != currentCombo.size()) {
+				combo = new int[currentCombo.size()];
+			}
+			for (int i = 0; i < combo.length; i++) {
+				combo[i] = currentCombo.get(i);
+			}
+			action.accept(combo);
+		}
+	}
+
+	default void forEachBits(ComboBitsConsumer action) {
+		forEach(combo -> {
+			long lowBits = 0;
+			long highBits = 0;
+			for (int number : combo) {
+				if (number < 64) {
+					lowBits |= 1L << number;
+				} else {
+					highBits |= 1L << (number - 64);
+				}
+			}
+			action.accept(lowBits, highBits);
+		});
+	}
+
 	Integer getMinOccurence();
 
 	Integer getMaxOccurence();
@@ -51,4 +86,19 @@ public interface Storage extends AutoCloseable {
 
 	public  Map<Number, Integer> getHistoricalPremiums();
 
+	@FunctionalInterface
+	public static interface IntComboConsumer {
+
+		void accept(int[] combo);
+
+	}
+
+	//I numeri da 0 a 63 sono rappresentati dai bit di lowBits, quelli da 64 a 127 dai bit di highBits
+	@FunctionalInterface
+	public static interface ComboBitsConsumer {
+
+		void accept(long lowBits, long highBits);
+
+	}
+
 }
@@ -0,0 +1,103 @@
+package org.rg.game.lottery.engine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+//Enumera senza scarti le combinazioni la cui somma e' tra quelle ammesse. La tabella counts[i][j][s] contiene il
+//numero di combinazioni di j numeri scelti tra quelli dalla posizione i in poi la cui somma e' s: le combinazioni
+//ammesse sono ordinate per somma e, a parita' di somma, in ordine lessicografico e select converte la posizione di una
+//combinazione in questo ordine nel suo rank (lo stesso di ComboHandler). Scegliendo la posizione in modo casuale si
+//ottiene quindi un'estrazione uniforme tra le sole combinazioni ammesse
+public class SumConstrainedComboSampler {
+	private final int[] numbers;
+	private final int combinationSize;
+	private final long[][][] counts;
+	private final long[][] binomials;
+	private final int[] sums;
+	private final long[] cumulativeCounts;
+
+	private SumConstrainedComboSampler(List<Integer> numbers, int combinationSize, IntPredicate allowedSums) {
+		this.numbers = numbers.stream().mapToInt(Integer::intValue).toArray();
+		this.combinationSize = combinationSize;
+		int[] sortedNumbers = this.numbers.clone();
+		Arrays.sort(sortedNumbers);
+		if (sortedNumbers.length > 0 && sortedNumbers[0] < 0) {
+			throw new IllegalArgumentException("Negative numbers are not supported: " + sortedNumbers[0]);
+		}
+		int maxSum = 0;
+		for (int i = Math.max(0, sortedNumbers.length - combinationSize); i < sortedNumbers.length; i++) {
+			maxSum += sortedNumbers[i];
+		}
+		counts = new long[this.numbers.length + 1][combinationSize + 1][maxSum + 1];
+		counts[this.numbers.length][0][0] = 1;
+		for (int i = this.numbers.length - 1; i >= 0; i--) {
+			int number = this.numbers[i];
+			for (int j = 0; j <= combinationSize; j++) {
+				for (int sum = 0; sum <= maxSum; sum++) {
+					counts[i][j][sum] = counts[i + 1][j][sum] +
+						(j > 0 && sum >= number ? counts[i + 1][j - 1][sum - number] : 0);
+				}
+			}
+		}
+		binomials = ComboHandler.binomials(this.numbers.length, combinationSize);
+		int sumsCount = 0;
+		int[] sums = new int[maxSum + 1];
+		long[] cumulativeCounts = new long[maxSum + 2];
+		for (int sum = 0; sum <= maxSum; sum++) {
+			if (counts[0][combinationSize][sum] > 0 && allowedSums.test(sum)) {
+				sums[sumsCount] = sum;
+				cumulativeCounts[sumsCount + 1] = cumulativeCounts[sumsCount] + counts[0][combinationSize][sum];
+				sumsCount++;
+			}
+		}
+		this.sums = Arrays.copyOf(sums, sumsCount);
+		this.cumulativeCounts = Arrays.copyOf(cumulativeCounts, sumsCount + 1);
+	}
+
+	public static SumConstrainedComboSampler create(List<Integer> numbers, int combinationSize, IntPredicate allowedSums) {
+		return new SumConstrainedComboSampler(numbers, combinationSize, allowedSums);
+	}
+
+	//Numero di combinazioni la cui somma e' ammessa
+	public long getSize() {
+		return cumulativeCounts[sums.length];
+	}
+
+	//Restituisce il rank della combinazione che occupa la posizione indicata tra quelle ammesse
+	public long select(long position) {
+		if (position < 0 || position >= getSize()) {
+			throw new IndexOutOfBoundsException("Position " + position + " is out of bounds (size " + getSize() + ")");
+		}
+		int sumIndex = 0;
+		int right = sums.length - 1;
+		while (sumIndex < right) {
+			int middle = (sumIndex + right + 1) >>> 1;
+			if (cumulativeCounts[middle] <= position) {
+				sumIndex = middle;
+			} else {
+				right = middle - 1;
+			}
+		}
+		position -= cumulativeCounts[sumIndex];
+		int remainingSum = sums[sumIndex];
+		long rank = 0;
+		int index = 0;
+		for (int i = 0; i < combinationSize; i++) {
+			int remainingNumbers = combinationSize - i - 1;
+			long combosStartingWithIndex;
+			//Le combinazioni che iniziano con un indice scartato vengono saltate sia nella posizione (solo quelle
+			//con la somma cercata) sia nel rank (tutte)
+			while (position >= (combosStartingWithIndex = remainingSum >= numbers[index] ?
+				counts[index + 1][remainingNumbers][remainingSum - numbers[index]] : 0)
+			) {
+				position -= combosStartingWithIndex;
+				rank += binomials[numbers.length - 1 - index][remainingNumbers];
+				index++;
+			}
+			remainingSum -= numbers[index++];
+		}
+		return rank;
+	}
+
+}
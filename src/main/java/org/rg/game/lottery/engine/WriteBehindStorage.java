@@ -0,0 +1,271 @@
+package org.rg.game.lottery.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.burningwave.Throwables;
+
+//Le scritture vengono accodate in un buffer circolare limitato e eseguite in ordine da un unico thread dedicato al
+//file: quando il buffer e' pieno chi scrive resta in attesa, mentre le letture attendono che il buffer sia svuotato
+public class WriteBehindStorage implements Storage {
+	private static final Consumer<PersistentStorage> STOP = storage -> {};
+	//Intervallo con cui chi e' in attesa del thread di scrittura verifica che sia ancora attivo
+	private static final long WRITER_CHECK_INTERVAL = 100;
+
+	private final PersistentStorage storage;
+	private final BlockingQueue<Consumer<PersistentStorage>> operations;
+	private final Thread writer;
+	private volatile Throwable writerException;
+	private int size;
+	private boolean closed;
+
+	public WriteBehindStorage(PersistentStorage storage, int bufferSize) {
+		this.storage = storage;
+		this.operations = new ArrayBlockingQueue<>(bufferSize);
+		this.size = storage.size();
+		this.writer = new Thread(this::write, "Write-behind " + storage.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void write() {
+		try {
+			while (true) {
+				Consumer<PersistentStorage> operation = operations.take();
+				if (operation == STOP) {
+					return;
+				}
+				//Dopo il primo errore le scritture vengono scartate ma le barriere devono comunque essere rilasciate
+				if (writerException == null || operation instanceof Barrier) {
+					try {
+						operation.accept(storage);
+					} catch (Throwable exc) {
+						writerException = exc;
+					}
+				}
+			}
+		} catch (InterruptedException exc) {
+			writerException = exc;
+		}
+	}
+
+	private void enqueue(Consumer<PersistentStorage> operation) {
+		checkWriterException();
+		if (closed) {
+			throw new IllegalStateException(this + " is closed");
+		}
+		try {
+			while (!operations.offer(operation, WRITER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+				checkWriterIsAlive();
+			}
+		} catch (InterruptedException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	private void drain() {
+		if (!closed) {
+			Barrier barrier = new Barrier();
+			enqueue(barrier);
+			try {
+				while (!barrier.await(WRITER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+					checkWriterIsAlive();
+				}
+			} catch (InterruptedException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			}
+		}
+		checkWriterException();
+	}
+
+	private void checkWriterException() {
+		Throwable exc = writerException;
+		if (exc != null) {
+			Throwables.INSTANCE.throwException(exc);
+		}
+	}
+
+	//Se il thread di scrittura e' terminato le operazioni accodate non verranno mai eseguite
+	private void checkWriterIsAlive() {
+		if (!writer.isAlive()) {
+			checkWriterException();
+			throw new IllegalStateException("Write-behind thread of " + this + " has terminated");
+		}
+	}
+
+	private void stopWriter() throws InterruptedException {
+		//Lo stop viene accodato anche se il thread di scrittura ha gia' fallito per poterlo terminare
+		while (writer.isAlive() && !operations.offer(STOP, WRITER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+			//Il buffer e' pieno: si attende che il thread di scrittura lo svuoti o termini
+		}
+		writer.join();
+	}
+
+	public Storage getWrappedStorage() {
+		return storage;
+	}
+
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return storage.getName();
+	}
+
+	@Override
+	public synchronized boolean addCombo(List<Integer> selectedCombo) {
+		checkWriterException();
+		//La deduplicazione viene fatta in modo sincrono sull'insieme dello storage per poter restituire subito l'esito
+		//di addCombo: il thread di scrittura esegue solo la scrittura e non accede all'insieme
+		if (storage.register(selectedCombo)) {
+			List<Integer> combo = new ArrayList<>(selectedCombo);
+			enqueue(storage -> storage.writeCombo(combo));
+			++size;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized List<Integer> getCombo(int idx) {
+		drain();
+		return storage.getCombo(idx);
+	}
+
+	@Override
+	public synchronized boolean addLine(String value) {
+		enqueue(storage -> storage.addLine(value));
+		return true;
+	}
+
+	@Override
+	public synchronized void addUnindexedCombo(List<Integer> selectedCombo) {
+		List<Integer> combo = new ArrayList<>(selectedCombo);
+		enqueue(storage -> storage.addUnindexedCombo(combo));
+	}
+
+	@Override
+	public synchronized void printAll() {
+		drain();
+		storage.printAll();
+	}
+
+	@Override
+	public synchronized boolean addLine() {
+		enqueue(Storage::addLine);
+		return true;
+	}
+
+	@Override
+	public synchronized void flush() {
+		drain();
+		storage.flush();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			checkWriterException();
+			return;
+		}
+		try {
+			stopWriter();
+		} catch (InterruptedException exc) {
+			Throwables.INSTANCE.throwException(exc);
+		} finally {
+			closed = true;
+			storage.close();
+		}
+		checkWriterException();
+	}
+
+	@Override
+	public synchronized boolean isClosed() {
+		drain();
+		return storage.isClosed();
+	}
+
+	@Override
+	public synchronized Iterator<List<Integer>> iterator() {
+		drain();
+		return storage.iterator();
+	}
+
+	@Override
+	public synchronized void forEach(IntComboConsumer action) {
+		drain();
+		storage.forEach(action);
+	}
+
+	@Override
+	public synchronized void forEachBits(ComboBitsConsumer action) {
+		drain();
+		storage.forEachBits(action);
+	}
+
+	@Override
+	public synchronized Integer getMinOccurence() {
+		drain();
+		return storage.getMinOccurence();
+	}
+
+	@Override
+	public synchronized Integer getMaxOccurence() {
+		drain();
+		return storage.getMaxOccurence();
+	}
+
+	@Override
+	public synchronized void delete() {
+		try {
+			drain();
+		} finally {
+			//Lo storage eliminato non verra' chiuso per cui il thread di scrittura viene terminato qui
+			try {
+				if (!closed) {
+					stopWriter();
+				}
+			} catch (InterruptedException exc) {
+				Throwables.INSTANCE.throwException(exc);
+			} finally {
+				closed = true;
+				storage.delete();
+			}
+		}
+	}
+
+	@Override
+	public synchronized Map<Number, Integer> getHistoricalPremiums() {
+		drain();
+		return storage.getHistoricalPremiums();
+	}
+
+	@Override
+	public String toString() {
+		return storage.toString();
+	}
+
+	private static class Barrier extends CountDownLatch implements Consumer<PersistentStorage> {
+
+		Barrier() {
+			super(1);
+		}
+
+		@Override
+		public void accept(PersistentStorage storage) {
+			countDown();
+		}
+
+	}
+
+}
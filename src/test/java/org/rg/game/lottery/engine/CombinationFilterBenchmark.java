@@ -0,0 +1,57 @@
+package org.rg.game.lottery.engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class CombinationFilterBenchmark {
+
+	public static void main(String[] args) {
+		int comboCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+		String filter = args.length > 1 ? args[1] :
+			"1 -> 30: 1,3; 31 -> 60: 1,3; 61 -> 90: 0,3 & radius 0,10: 0,2 & " +
+			"(sum: 100 -> 200 | in 1,2,3: 1,3 | sum: 300 -> 400) & sameLastDigit: 0,2 & " +
+			"consecutiveNumber: 0,1 & noRemainder: 2,4 & in 1,2,3,4,5,6,7,8,9,10: 0,2";
+		Random random = new Random(0);
+		int[][] combos = new int[comboCount][];
+		for (int i = 0; i < comboCount; i++) {
+			combos[i] = random.ints(1, 91).distinct().limit(6).sorted().toArray();
+		}
+		List<Integer> numbers = IntStream.rangeClosed(1, 90).boxed().collect(Collectors.toList());
+		IntComboPredicate.Node tree = CombinationFilterFactory.INSTANCE.compile(filter);
+		IntComboPredicate.Node optimizedTree = CombinationFilterFactory.INSTANCE.optimize(tree, numbers, 6);
+		Map<String, IntComboPredicate> backends = new LinkedHashMap<>();
+		backends.put("tree", tree);
+		backends.put("bytecode", IntComboPredicateGenerator.generate(tree));
+		backends.put("optimized tree", optimizedTree);
+		backends.put("optimized bytecode", IntComboPredicateGenerator.generate(optimizedTree));
+		Map<String, boolean[]> results = new LinkedHashMap<>();
+		for (int iteration = 0; iteration < 5; iteration++) {
+			for (Map.Entry<String, IntComboPredicate> backend : backends.entrySet()) {
+				IntComboPredicate predicate = backend.getValue();
+				boolean[] result = new boolean[comboCount];
+				long startTime = System.nanoTime();
+				for (int i = 0; i < comboCount; i++) {
+					result[i] = predicate.test(combos[i]);
+				}
+				long elapsedTime = System.nanoTime() - startTime;
+				results.put(backend.getKey(), result);
+				System.out.println(
+					"Iteration " + (iteration + 1) + " - " + backend.getKey() + ": " + elapsedTime / 1_000_000 + "ms (" +
+					elapsedTime / comboCount + "ns/combo)"
+				);
+			}
+		}
+		boolean[] expected = results.get("tree");
+		for (Map.Entry<String, boolean[]> result : results.entrySet()) {
+			if (!Arrays.equals(expected, result.getValue())) {
+				System.out.println(result.getKey() + " results differ from the tree ones");
+			}
+		}
+	}
+
+}
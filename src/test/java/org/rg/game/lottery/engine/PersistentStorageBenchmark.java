@@ -0,0 +1,79 @@
+package org.rg.game.lottery.engine;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class PersistentStorageBenchmark {
+
+	public static void main(String[] args) {
+		int comboCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Random random = new Random(0);
+		List<List<Integer>> combos = new ArrayList<>(comboCount);
+		for (int i = 0; i < comboCount; i++) {
+			TreeSet<Integer> combo = new TreeSet<>();
+			while (combo.size() < 6) {
+				combo.add(1 + random.nextInt(90));
+			}
+			combos.add(new ArrayList<>(combo));
+		}
+		for (PersistentStorage.Format format : PersistentStorage.Format.values()) {
+			long startTime = System.currentTimeMillis();
+			PersistentStorage storage = format.create(LocalDate.now(), 6, comboCount, "benchmark", "-" + format.name().toLowerCase());
+			for (List<Integer> combo : combos) {
+				storage.addCombo(combo);
+			}
+			storage.addLine(Storage.END_LINE_PREFIX + " di giocare il sistema per questo concorso");
+			storage.close();
+			long writeTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			PersistentStorage restoredStorage = PersistentStorage.restore("benchmark", storage.getName());
+			long restoreTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			Iterator<List<Integer>> comboIterator = restoredStorage.iterator();
+			long checksum = 0;
+			while (comboIterator.hasNext()) {
+				checksum += comboIterator.next().get(0);
+			}
+			long iteratorTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			long[] forEachChecksum = new long[1];
+			restoredStorage.forEach(combo -> forEachChecksum[0] += combo[0]);
+			long forEachTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			restoredStorage.getMinOccurence();
+			long coldOccurrencesTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			PersistentStorage.restore("benchmark", storage.getName()).getMaxOccurence();
+			long warmOccurrencesTime = System.currentTimeMillis() - startTime;
+
+			startTime = System.currentTimeMillis();
+			restoredStorage.getCombo(comboCount / 2);
+			long getComboTime = System.currentTimeMillis() - startTime;
+
+			long fileSize = new File(storage.getAbsolutePath()).length();
+			if (storage instanceof BinaryPersistentStorage) {
+				fileSize += new File(((BinaryPersistentStorage)storage).getCombosAbsolutePath()).length();
+			} else if (storage instanceof CompressedPersistentStorage) {
+				fileSize += new File(((CompressedPersistentStorage)storage).getCombosAbsolutePath()).length();
+			}
+			System.out.println(
+				format + ": write " + writeTime + "ms, restore " + restoreTime + "ms, iterator " + iteratorTime +
+				"ms, forEach " + forEachTime + "ms, occurrences " + coldOccurrencesTime + "ms (cached " + warmOccurrencesTime +
+				"ms), getCombo " + getComboTime + "ms, size on disk " + fileSize + " bytes" +
+				(checksum == forEachChecksum[0] ? "" : " (checksum mismatch)")
+			);
+			storage.delete();
+		}
+	}
+
+}
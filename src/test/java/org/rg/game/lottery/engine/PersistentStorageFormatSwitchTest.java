@@ -0,0 +1,50 @@
+package org.rg.game.lottery.engine;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+//Rigenera lo stesso sistema in formato testo dopo averlo generato in un formato binario e verifica che il ripristino
+//legga le combinazioni della generazione piu' recente e non quelle del file binario precedente
+public class PersistentStorageFormatSwitchTest {
+
+	public static void main(String[] args) {
+		List<List<Integer>> oldCombos = Arrays.asList(Arrays.asList(1, 2, 3, 4, 5, 6), Arrays.asList(7, 8, 9, 10, 11, 12));
+		List<List<Integer>> newCombos = Arrays.asList(Arrays.asList(13, 14, 15, 16, 17, 18));
+		int failures = 0;
+		for (PersistentStorage.Format previousFormat : Arrays.asList(PersistentStorage.Format.BINARY, PersistentStorage.Format.COMPRESSED)) {
+			LocalDate extractionDate = LocalDate.now();
+			write(previousFormat.create(extractionDate, 6, 2, "format-switch-test", ""), oldCombos);
+			PersistentStorage storage = write(PersistentStorage.Format.TEXT.create(extractionDate, 6, 2, "format-switch-test", ""), newCombos);
+			PersistentStorage restoredStorage = PersistentStorage.restore("format-switch-test", storage.getName());
+			List<List<Integer>> restoredCombos = new ArrayList<>();
+			Iterator<List<Integer>> comboIterator = restoredStorage.iterator();
+			while (comboIterator.hasNext()) {
+				restoredCombos.add(comboIterator.next());
+			}
+			if (restoredStorage instanceof BinaryPersistentStorage || restoredStorage instanceof CompressedPersistentStorage ||
+				!restoredCombos.equals(newCombos)
+			) {
+				failures++;
+				System.out.println(
+					"Text storage generated after a " + previousFormat + " one restored as " +
+					restoredStorage.getClass().getSimpleName() + " with combos " + restoredCombos
+				);
+			}
+			storage.delete();
+		}
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+	}
+
+	private static PersistentStorage write(PersistentStorage storage, List<List<Integer>> combos) {
+		for (List<Integer> combo : combos) {
+			storage.addCombo(combo);
+		}
+		storage.addLine(Storage.END_LINE_PREFIX + " di giocare il sistema per questo concorso");
+		storage.close();
+		return storage;
+	}
+
+}
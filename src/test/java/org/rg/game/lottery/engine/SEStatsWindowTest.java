@@ -0,0 +1,72 @@
+package org.rg.game.lottery.engine;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.rg.game.core.TimeUtils;
+
+//Confronta le statistiche calcolate in modo incrementale dalla finestra mobile con quelle calcolate da zero sullo
+//stesso periodo: la finestra viene fatta avanzare a passi regolari e ogni tanto viene spostata all'indietro per
+//forzarne l'azzeramento
+public class SEStatsWindowTest {
+
+	public static void main(String[] args) {
+		int windowSizeInDays = args.length > 0 ? Integer.parseInt(args[0]) : 365;
+		int checks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		SEStats source = SEStats.get(SEStats.FIRST_EXTRACTION_DATE_AS_STRING, TimeUtils.defaultLocalDateFormat.format(TimeUtils.today()));
+		Map<String, Function<SEStats, Object>> statsSuppliers = new LinkedHashMap<>();
+		statsSuppliers.put("extractedNumberRank", SEStats::getExtractedNumberRank);
+		statsSuppliers.put("counterOfAbsencesFromCompetitionsRank", SEStats::getCounterOfAbsencesFromCompetitionsRank);
+		statsSuppliers.put("absencesRecordFromCompetitionsRank", SEStats::getAbsencesRecordFromCompetitionsRank);
+		statsSuppliers.put("distanceFromAbsenceRecordRank", SEStats::getDistanceFromAbsenceRecordRank);
+		statsSuppliers.put("distanceFromAbsenceRecordPercentageRank", SEStats::getDistanceFromAbsenceRecordPercentageRank);
+		statsSuppliers.put("mostAbsentNumbersRank", SEStats::getMostAbsentNumbersRank);
+		statsSuppliers.put("extractedNumberFromMostExtractedCoupleRank", SEStats::getExtractedNumberFromMostExtractedCoupleRank);
+		statsSuppliers.put("extractedNumberFromMostExtractedTripleRank", SEStats::getExtractedNumberFromMostExtractedTripleRank);
+		statsSuppliers.put("mostExtractedCoupleRank", sEStats -> sEStats.getMostExtractedCoupleRank(30));
+		statsSuppliers.put("mostExtractedTripleRank", sEStats -> sEStats.getMostExtractedTripleRank(30));
+		statsSuppliers.put("extractedNumberCounters", sEStats -> {
+			List<Integer> counters = new ArrayList<>();
+			for (Integer number : SEStats.NUMBERS) {
+				counters.add(sEStats.getExtractedNumberCounterFor(number));
+			}
+			return counters;
+		});
+		LocalDate firstDate = LocalDate.parse(SEStats.FIRST_EXTRACTION_DATE_AS_STRING, TimeUtils.defaultLocalDateFormat);
+		LocalDate startDate = firstDate;
+		Random random = new Random(0);
+		int failures = 0;
+		for (int check = 0; check < checks && startDate.plusDays(windowSizeInDays).isBefore(TimeUtils.today()); check++) {
+			Date start = toDate(startDate);
+			Date end = toDate(startDate.plusDays(windowSizeInDays));
+			SEStats incremental = SEStatsWindow.viewOf(source, start, end);
+			SEStats full = new SEStats(source, start, end, null, null, null);
+			for (Map.Entry<String, Function<SEStats, Object>> statsSupplier : statsSuppliers.entrySet()) {
+				if (!Objects.equals(statsSupplier.getValue().apply(incremental), statsSupplier.getValue().apply(full))) {
+					failures++;
+					System.out.println("Mismatch of " + statsSupplier.getKey() + " for period " + startDate + " -> " + startDate.plusDays(windowSizeInDays));
+				}
+			}
+			startDate = random.nextInt(10) == 0 ?
+				startDate.minusDays(random.nextInt(60)) :
+				startDate.plusDays(1 + random.nextInt(30));
+			if (startDate.isBefore(firstDate)) {
+				startDate = firstDate;
+			}
+		}
+		System.out.println(failures == 0 ? "All checks passed" : failures + " mismatches found");
+	}
+
+	private static Date toDate(LocalDate date) {
+		return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+}